@@ -0,0 +1,1023 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import com.carrotsearch.hppc.ExternalSorter;
+import com.carrotsearch.hppc.HeapStreams;
+import com.carrotsearch.hppc.HeapTrace;
+import com.carrotsearch.hppc.IntBucketQueue;
+import com.carrotsearch.hppc.IntHeap;
+import com.carrotsearch.hppc.LongBHeap;
+import com.carrotsearch.hppc.LongComparator;
+import com.carrotsearch.hppc.LongHeap;
+import com.carrotsearch.hppc.LongIndirectHeap;
+import com.carrotsearch.hppc.LongObjectEvictingCache;
+import com.carrotsearch.hppc.LongSegmentedHeap;
+import com.carrotsearch.hppc.LongSequenceHeap;
+import com.carrotsearch.hppc.LongUnaryOperator;
+import com.carrotsearch.hppc.LongWeakHeap;
+import com.carrotsearch.hppc.PriorityExecutor;
+import com.carrotsearch.hppc.ShortestPaths;
+import com.carrotsearch.hppc.WeightedReservoirSampler;
+import com.carrotsearch.hppc.procedures.LongProcedure;
+
+/**
+ * Crude benchmarks of the heap variants on large heaps.
+ *
+ * Usage:  java HeapBenchmark &lt;benchmark&gt; [size]
+ *         java HeapBenchmark replay &lt;trace file&gt;
+ *         java HeapBenchmark record &lt;trace file&gt; [size]
+ *
+ * The benchmark is one of those below, or all of them (the default).  Size defaults to
+ * 100M, or 10M operations for record.  Give the JVM enough heap for two copies of the
+ * data (e.g. -Xmx4g for 100M elements).
+ *
+ * <ul>
+ * <li>heap, bheap:  fill a heap with size random longs, churn it with size pop_push()
+ * calls, then drain it, and print the time per operation of each phase.</li>
+ * <li>bursts:  add size random longs in bursts of 100K, popping 1K after each burst.</li>
+ * <li>sequence:  as heap, with pop() and add() in place of pop_push(), which the
+ * sequence heap doesn't have.</li>
+ * <li>segmented:  the heap benchmark on a LongHeap and a LongSegmentedHeap which both
+ * start at the default capacity, also printing the slowest single add(), where LongHeap
+ * expands.</li>
+ * <li>transform:  rewrite every priority of a heap of size elements by draining and
+ * re-adding, and with transformAll() for a monotone and a scrambling function.</li>
+ * <li>weak:  LongWeakHeap against LongIndirectHeap under a counting comparator, also
+ * printing the comparisons per operation.</li>
+ * <li>bucket:  IntBucketQueue against IntHeap on priorities in [0, 256) and [0, 4096),
+ * keeping size/16 elements queued while adding and popping size elements.</li>
+ * <li>streams:  sum a heap of size elements with forEach(), a sequential and a parallel
+ * stream, and parallelForEach().</li>
+ * <li>replay:  run a trace recorded with {@link HeapTrace} against every heap variant,
+ * and print the throughput, the latency percentiles and the bytes allocated.  An indirect
+ * heap's index trace is refused, since the order of its keys isn't recorded.</li>
+ * <li>record:  write a synthetic trace for replay.</li>
+ * <li>cache:  an LFU LongObjectEvictingCache of size/16 entries over size lookups of
+ * skewed keys, printing the time and allocation per lookup.</li>
+ * <li>executor:  size trivial tasks with random priorities on a ThreadPoolExecutor with a
+ * PriorityBlockingQueue, and on a PriorityExecutor with single and batched submission,
+ * and with virtual-thread workers on Java 21 and later.  Prints the time per task from
+ * the first submission until the executor has terminated, and the bytes the submitting
+ * thread allocated per task.</li>
+ * <li>reservoir:  offer size exponentially weighted items to WeightedReservoirSampler,
+ * with and without exponential jumps, for samples of 100 and 10000.</li>
+ * <li>shortest:  ShortestPaths with each queue strategy on a grid of about size vertices
+ * with random weights:  single-source searches, bidirectional point-to-point queries
+ * (with the bytes allocated per query) and a 16x16 many-to-many batch.</li>
+ * <li>external:  write size random longs to a temporary file and sort it with
+ * ExternalSorter's default 64M memory budget, with and without mmap.</li>
+ * </ul>
+ */
+public class HeapBenchmark
+{
+    public static long [] random_longs(int n, long seed)
+    {
+        Random rnd = new Random(seed);
+        long data[] = new long[n];
+        for(int i=0;i<n;i++)
+            data[i] = rnd.nextLong();
+        return data;
+    }
+
+    public static void report(String name, String phase, long t0, long t1, int ops)
+    {
+        System.out.println(name+" "+phase+": "+((t1-t0)/Math.max(ops, 1))+" ns/op");
+        return;
+    }
+
+    public static void bench_heap(int size)
+    {
+        long data[] = random_longs(size, 1);
+        LongHeap h = new LongHeap(size);
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<size;i++)
+            h.add(data[i]);
+        long t1 = System.nanoTime();
+        for(int i=0;i<size;i++)
+            h.pop_push(data[size-1-i]);
+        long t2 = System.nanoTime();
+        long sum = 0;
+        for(int i=0;i<size;i++)
+            sum += h.pop();
+        long t3 = System.nanoTime();
+
+        report("LongHeap", "add", t0, t1, size);
+        report("LongHeap", "pop_push", t1, t2, size);
+        report("LongHeap", "pop", t2, t3, size);
+        System.out.println("(checksum "+sum+")");
+        return;
+    }
+
+    public static void bench_bheap(int size)
+    {
+        long data[] = random_longs(size, 1);
+        LongBHeap h = new LongBHeap(size);
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<size;i++)
+            h.add(data[i]);
+        long t1 = System.nanoTime();
+        for(int i=0;i<size;i++)
+            h.pop_push(data[size-1-i]);
+        long t2 = System.nanoTime();
+        long sum = 0;
+        for(int i=0;i<size;i++)
+            sum += h.pop();
+        long t3 = System.nanoTime();
+
+        report("LongBHeap", "add", t0, t1, size);
+        report("LongBHeap", "pop_push", t1, t2, size);
+        report("LongBHeap", "pop", t2, t3, size);
+        System.out.println("(checksum "+sum+")");
+        return;
+    }
+
+    public static void bench_segmented(int size)
+    {
+        long data[] = random_longs(size, 1);
+        for(int seg=0;seg<2;seg++)
+        {
+            // both start small, so LongHeap expands as it grows
+            LongHeap h = (seg == 0) ? new LongHeap() : null;
+            LongSegmentedHeap sh = (seg == 1) ? new LongSegmentedHeap() : null;
+            String name = (seg == 1) ? "LongSegmentedHeap" : "LongHeap";
+
+            long worst = 0;
+            long t0 = System.nanoTime();
+            for(int i=0;i<size;i++)
+            {
+                long s = System.nanoTime();
+                if (seg == 1) sh.add(data[i]); else h.add(data[i]);
+                worst = Math.max(worst, System.nanoTime() - s);
+            }
+            long t1 = System.nanoTime();
+            for(int i=0;i<size;i++)
+            {
+                if (seg == 1) sh.pop_push(data[size-1-i]); else h.pop_push(data[size-1-i]);
+            }
+            long t2 = System.nanoTime();
+            long sum = 0;
+            for(int i=0;i<size;i++)
+                sum += (seg == 1) ? sh.pop() : h.pop();
+            long t3 = System.nanoTime();
+
+            report(name, "add", t0, t1, size);
+            System.out.println(name+" worst add: "+(worst/1000)+" us");
+            report(name, "pop_push", t1, t2, size);
+            report(name, "pop", t2, t3, size);
+            System.out.println("(checksum "+sum+")");
+        }
+        return;
+    }
+
+    public static void bench_transform(int size)
+    {
+        long data[] = random_longs(size, 1);
+        LongHeap h = new LongHeap(size);
+        for(int i=0;i<size;i++)
+            h.add(data[i] >> 1);
+        LongUnaryOperator decay = new LongUnaryOperator()
+        {
+            public long apply(long e)
+            {
+                return e - 1000000;
+            }
+        };
+        LongUnaryOperator rescore = new LongUnaryOperator()
+        {
+            public long apply(long e)
+            {
+                return e ^ 0x5555555555555555L;
+            }
+        };
+
+        // what transformAll() replaces:  drain, then add back the new values
+        long t0 = System.nanoTime();
+        long tmp[] = new long[size];
+        for(int i=0;i<size;i++)
+            tmp[i] = decay.apply(h.pop());
+        for(int i=0;i<size;i++)
+            h.add(tmp[i]);
+        long t1 = System.nanoTime();
+        h.transformAll(decay, true);
+        long t2 = System.nanoTime();
+        h.transformAll(rescore, false);
+        long t3 = System.nanoTime();
+
+        report("LongHeap", "drain and rebuild", t0, t1, size);
+        report("LongHeap", "transformAll monotone", t1, t2, size);
+        report("LongHeap", "transformAll with heapify", t2, t3, size);
+        System.out.println("(checksum "+h.peek()+")");
+        return;
+    }
+
+    public static void bench_sequence(int size)
+    {
+        long data[] = random_longs(size, 1);
+        LongSequenceHeap h = new LongSequenceHeap();
+
+        long t0 = System.nanoTime();
+        for(int i=0;i<size;i++)
+            h.add(data[i]);
+        long t1 = System.nanoTime();
+        for(int i=0;i<size;i++)
+        {
+            h.pop();
+            h.add(data[size-1-i]);
+        }
+        long t2 = System.nanoTime();
+        long sum = 0;
+        for(int i=0;i<size;i++)
+            sum += h.pop();
+        long t3 = System.nanoTime();
+
+        report("LongSequenceHeap", "add", t0, t1, size);
+        report("LongSequenceHeap", "pop+add", t1, t2, size);
+        report("LongSequenceHeap", "pop", t2, t3, size);
+        System.out.println("(checksum "+sum+")");
+        return;
+    }
+
+    public static void bench_bursts(int size, boolean buffered, boolean ascending)
+    {
+        // bursts of 100K adds, each followed by 1K pops.  Ascending keys look like
+        // timer deadlines:  mostly later than anything already queued.
+        long data[] = random_longs(size, 2);
+        if (ascending)
+        {
+            for(int i=0;i<size;i++)
+                data[i] = ((long) i << 20) + (data[i] & ((1L << 30) - 1));
+        }
+        LongHeap h = new LongHeap(size);
+        h.buffered = buffered;
+
+        long t_add = 0, t_pop = 0;
+        long sum = 0;
+        int pops = 0;
+        for(int i=0;i<size;i+=100000)
+        {
+            int end = Math.min(i + 100000, size);
+            long t0 = System.nanoTime();
+            for(int j=i;j<end;j++)
+                h.add(data[j]);
+            long t1 = System.nanoTime();
+            for(int j=0;j<1000;j++,pops++)
+                sum += h.pop();
+            long t2 = System.nanoTime();
+            t_add += t1 - t0;
+            t_pop += t2 - t1;
+        }
+
+        String name = (buffered ? "LongHeap (buffered)" : "LongHeap") + (ascending ? " ascending" : " random");
+        report(name, "burst add", 0, t_add, size);
+        report(name, "burst pop", 0, t_pop, pops);
+        System.out.println("(checksum "+sum+")");
+        return;
+    }
+
+    /**
+     * Natural order, counting the calls.
+     */
+    public static class CountingComparator
+        implements LongComparator
+    {
+        public long count;
+
+        public int compare(long a, long b)
+        {
+            this.count++;
+            return (a < b) ? -1 : ((a == b) ? 0 : 1);
+        }
+    }
+
+    public static void bench_weak(int size)
+    {
+        long data[] = random_longs(size, 1);
+        for(int weak=0;weak<2;weak++)
+        {
+            CountingComparator comp = new CountingComparator();
+            LongWeakHeap wh = (weak == 1) ? new LongWeakHeap(comp, size) : null;
+            LongIndirectHeap ih = (weak == 0) ? new LongIndirectHeap(comp, size) : null;
+            String name = (weak == 1) ? "LongWeakHeap" : "LongIndirectHeap";
+
+            long t0 = System.nanoTime();
+            for(int i=0;i<size;i++)
+            {
+                if (weak == 1) wh.add(data[i]); else ih.add(data[i]);
+            }
+            long t1 = System.nanoTime();
+            long c1 = comp.count;
+            long sum = 0;
+            for(int i=0;i<size;i++)
+                sum += (weak == 1) ? wh.pop() : ih.pop();
+            long t2 = System.nanoTime();
+            long c2 = comp.count;
+
+            report(name, "add", t0, t1, size);
+            report(name, "pop", t1, t2, size);
+            System.out.println(name+" comparisons: add "+((double) c1/size)+"/op, pop "+((double) (c2-c1)/size)+"/op");
+            System.out.println("(checksum "+sum+")");
+        }
+
+        CountingComparator comp = new CountingComparator();
+        long t0 = System.nanoTime();
+        LongWeakHeap.sort(data, comp);
+        long t1 = System.nanoTime();
+        report("LongWeakHeap", "sort", t0, t1, size);
+        System.out.println("LongWeakHeap sort comparisons: "+((double) comp.count/size)+"/element");
+        return;
+    }
+
+    public static void bench_bucket(int size, int range)
+    {
+        Random rnd = new Random(1);
+        int data[] = new int[size];
+        for(int i=0;i<size;i++)
+            data[i] = rnd.nextInt(range);
+        int queued = Math.max(size >>> 4, 1);
+
+        IntHeap h = new IntHeap(queued);
+        long t0 = System.nanoTime();
+        long sum = 0;
+        for(int i=0;i<size;i++)
+        {
+            h.add(data[i]);
+            if (i >= queued)
+                sum += h.pop();
+        }
+        long t1 = System.nanoTime();
+        report("IntHeap range "+range, "add+pop", t0, t1, size);
+
+        IntBucketQueue q = new IntBucketQueue(range);
+        t0 = System.nanoTime();
+        for(int i=0;i<size;i++)
+        {
+            q.add(data[i]);
+            if (i >= queued)
+                sum -= q.pop();
+        }
+        t1 = System.nanoTime();
+        report("IntBucketQueue range "+range, "add+pop", t0, t1, size);
+
+        q = new IntBucketQueue(range, true);
+        t0 = System.nanoTime();
+        for(int i=0;i<size;i++)
+        {
+            q.add(data[i], i);
+            if (i >= queued)
+                q.popPayload();
+        }
+        t1 = System.nanoTime();
+        report("IntBucketQueue payloads range "+range, "add+pop", t0, t1, size);
+        System.out.println("(checksum "+sum+")");
+        return;
+    }
+
+    /**
+     * Sums the elements it is given.
+     */
+    public static class Summer
+        implements LongProcedure
+    {
+        public long sum;
+
+        public void apply(long e)
+        {
+            this.sum += e;
+        }
+    }
+
+    public static void bench_streams(int size)
+    {
+        LongHeap h = LongHeap.parallelFrom(random_longs(size, 1));
+        for(int round=0;round<3;round++)
+        {
+            long t0 = System.nanoTime();
+            long s0 = h.forEach(new Summer()).sum;
+            long t1 = System.nanoTime();
+            long s1 = HeapStreams.longStream(h).sum();
+            long t2 = System.nanoTime();
+            long s2 = HeapStreams.longStream(h).parallel().sum();
+            long t3 = System.nanoTime();
+            final LongAdder adder = new LongAdder();
+            h.parallelForEach(new LongProcedure()
+            {
+                public void apply(long e)
+                {
+                    adder.add(e & 1);
+                }
+            });
+            long t4 = System.nanoTime();
+
+            report("LongHeap", "forEach sum", t0, t1, size);
+            report("LongHeap", "longStream sum", t1, t2, size);
+            report("LongHeap", "parallel longStream sum", t2, t3, size);
+            report("LongHeap", "parallelForEach odd count", t3, t4, size);
+            System.out.println("(checksum "+(s0 ^ s1 ^ s2)+" "+adder.sum()+")");
+        }
+        return;
+    }
+
+    /**
+     * A heap variant replaying a trace, with its keys mapped onto longs.  The sequence heap
+     * has no push_pop() or pop_push(), so it does an add() and a pop().
+     */
+    public static abstract class Replayer
+    {
+        public final String name;
+
+        public Replayer(String name)
+        {
+            this.name = name;
+        }
+
+        public abstract void add(long e);
+        public abstract long pop();
+        public abstract long push_pop(long e);
+        public abstract long pop_push(long e);
+        public abstract void clear();
+    }
+
+    /**
+     * A fresh heap of every variant.
+     */
+    public static Replayer [] replayers()
+    {
+        LongComparator natural = new LongComparator()
+        {
+            public int compare(long a, long b)
+            {
+                return (a < b) ? -1 : ((a == b) ? 0 : 1);
+            }
+        };
+        final LongHeap heap = new LongHeap();
+        final LongHeap bottom_up = new LongHeap();
+        bottom_up.bottom_up = true;
+        final LongHeap buffered = new LongHeap();
+        buffered.buffered = true;
+        final LongIndirectHeap indirect = new LongIndirectHeap(natural);
+        final LongBHeap bheap = new LongBHeap();
+        final LongSegmentedHeap segmented = new LongSegmentedHeap(12);
+        final LongWeakHeap weak = new LongWeakHeap(natural);
+        final LongSequenceHeap sequence = new LongSequenceHeap();
+        return new Replayer[] {
+            new Replayer("LongHeap") {
+                public void add(long e) { heap.add(e); }
+                public long pop() { return heap.pop(); }
+                public long push_pop(long e) { return heap.push_pop(e); }
+                public long pop_push(long e) { return heap.pop_push(e); }
+                public void clear() { heap.clear(); }
+            },
+            new Replayer("LongHeap bottom_up") {
+                public void add(long e) { bottom_up.add(e); }
+                public long pop() { return bottom_up.pop(); }
+                public long push_pop(long e) { return bottom_up.push_pop(e); }
+                public long pop_push(long e) { return bottom_up.pop_push(e); }
+                public void clear() { bottom_up.clear(); }
+            },
+            new Replayer("LongHeap buffered") {
+                public void add(long e) { buffered.add(e); }
+                public long pop() { return buffered.pop(); }
+                public long push_pop(long e) { return buffered.push_pop(e); }
+                public long pop_push(long e) { return buffered.pop_push(e); }
+                public void clear() { buffered.clear(); }
+            },
+            new Replayer("LongIndirectHeap") {
+                public void add(long e) { indirect.add(e); }
+                public long pop() { return indirect.pop(); }
+                public long push_pop(long e) { return indirect.push_pop(e); }
+                public long pop_push(long e) { return indirect.pop_push(e); }
+                public void clear() { indirect.clear(); }
+            },
+            new Replayer("LongBHeap") {
+                public void add(long e) { bheap.add(e); }
+                public long pop() { return bheap.pop(); }
+                public long push_pop(long e) { return bheap.push_pop(e); }
+                public long pop_push(long e) { return bheap.pop_push(e); }
+                public void clear() { bheap.clear(); }
+            },
+            new Replayer("LongSegmentedHeap") {
+                public void add(long e) { segmented.add(e); }
+                public long pop() { return segmented.pop(); }
+                public long push_pop(long e) { return segmented.push_pop(e); }
+                public long pop_push(long e) { return segmented.pop_push(e); }
+                public void clear() { segmented.clear(); }
+            },
+            new Replayer("LongWeakHeap") {
+                public void add(long e) { weak.add(e); }
+                public long pop() { return weak.pop(); }
+                public long push_pop(long e) { return weak.push_pop(e); }
+                public long pop_push(long e) { return weak.pop_push(e); }
+                public void clear() { weak.clear(); }
+            },
+            new Replayer("LongSequenceHeap") {
+                public void add(long e) { sequence.add(e); }
+                public long pop() { return sequence.pop(); }
+                public long push_pop(long e)
+                {
+                    if (sequence.size() == 0 || e <= sequence.peek())
+                        return e;
+                    sequence.add(e);
+                    return sequence.pop();
+                }
+                public long pop_push(long e)
+                {
+                    long result = sequence.pop();
+                    sequence.add(e);
+                    return result;
+                }
+                public void clear() { sequence.clear(); }
+            },
+        };
+    }
+
+    /**
+     * Run a trace, storing the time taken by each operation in latencies unless it is null.
+     *
+     * @return A checksum of the values returned, the same for every correct heap.
+     */
+    public static long replay(HeapTrace.Trace t, Replayer r, long latencies[])
+    {
+        if (t.type == HeapTrace.INDEX)
+            throw new IllegalArgumentException("An indirect heap's trace doesn't record its order.");
+        final byte ops[] = t.ops;
+        final long keys[] = t.keys;
+        long sum = 0;
+        long t0 = (latencies != null) ? System.nanoTime() : 0;
+        for(int i=0;i<t.size;i++)
+        {
+            long v = 0;
+            switch(ops[i])
+            {
+                case HeapTrace.ADD:      r.add(keys[i]); break;
+                case HeapTrace.POP:      v = r.pop(); break;
+                case HeapTrace.PUSH_POP: v = r.push_pop(keys[i]); break;
+                case HeapTrace.POP_PUSH: v = r.pop_push(keys[i]); break;
+                case HeapTrace.CLEAR:    r.clear(); break;
+            }
+            sum = sum * 31 + v;
+            if (latencies != null)
+            {
+                long t1 = System.nanoTime();
+                latencies[i] = t1 - t0;
+                t0 = t1;
+            }
+        }
+        return sum;
+    }
+
+    public static long allocated_bytes()
+    {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+            .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Record a synthetic trace of size operations to file:  bursts of adds with skewed
+     * priorities, pops, and push_pop() phases, on a LongHeap.
+     */
+    public static void record(File file, int size)
+        throws Exception
+    {
+        Random rnd = new Random(1);
+        LongHeap h = new LongHeap();
+        HeapTrace trace = HeapTrace.create(file, HeapTrace.LONG);
+        h.tracer = trace;
+        long ops = 0;
+        while (ops < size)
+        {
+            int burst = rnd.nextInt(10000);
+            for(int i=0;i<burst;i++, ops++)
+                h.add((long) (Math.pow(rnd.nextDouble(), 4) * 1000000));
+            int phase = rnd.nextInt(10000);
+            boolean push_pop = rnd.nextBoolean();
+            for(int i=0;i<phase && h._size > 0;i++, ops++)
+            {
+                if (push_pop)
+                    h.push_pop(rnd.nextInt(1000000));
+                else
+                    h.pop();
+            }
+        }
+        trace.close();
+        System.out.println("recorded "+trace.count+" operations to "+file+", "+file.length()+" bytes");
+        return;
+    }
+
+    /**
+     * A task with a priority, for a ThreadPoolExecutor on a PriorityBlockingQueue.
+     */
+    public static class PrioritizedTask
+        implements Runnable, Comparable<PrioritizedTask>
+    {
+        final int priority;
+        final Runnable task;
+
+        public PrioritizedTask(int priority, Runnable task)
+        {
+            this.priority = priority;
+            this.task = task;
+        }
+
+        public void run()
+        {
+            this.task.run();
+        }
+
+        public int compareTo(PrioritizedTask o)
+        {
+            return Integer.compare(this.priority, o.priority);
+        }
+    }
+
+    /**
+     * Virtual-thread factory from Thread.ofVirtual(), or null before Java 21.
+     */
+    public static ThreadFactory virtual_thread_factory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) builder.getClass().getMethod("factory").invoke(builder);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    public static void bench_executor(int size)
+        throws Exception
+    {
+        int workers = Runtime.getRuntime().availableProcessors();
+        Random rnd = new Random(1);
+        int priorities[] = new int[size];
+        for(int i=0;i<size;i++)
+            priorities[i] = rnd.nextInt(1000);
+        final LongAdder sum = new LongAdder();
+        Runnable task = new Runnable()
+        {
+            public void run()
+            {
+                sum.increment();
+            }
+        };
+
+        ThreadPoolExecutor tpe = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>());
+        tpe.prestartAllCoreThreads();
+        long a0 = allocated_bytes();
+        long t0 = System.nanoTime();
+        for(int i=0;i<size;i++)
+            tpe.execute(new PrioritizedTask(priorities[i], task));
+        tpe.shutdown();
+        tpe.awaitTermination(1, TimeUnit.HOURS);
+        long t1 = System.nanoTime();
+        report("ThreadPoolExecutor (PriorityBlockingQueue)", "submit and run", t0, t1, size);
+        System.out.println("ThreadPoolExecutor (PriorityBlockingQueue) allocated: "+((allocated_bytes()-a0)/Math.max(size, 1))+" bytes/task");
+
+        ThreadFactory virtual = virtual_thread_factory();
+        for(int run=0;run<3;run++)
+        {
+            boolean batch = (run == 1);
+            if (run == 2 && virtual == null)
+            {
+                System.out.println("(no virtual threads before Java 21)");
+                break;
+            }
+            String name = "PriorityExecutor" + ((run == 2) ? " (virtual threads)" : "") + (batch ? " batch" : "");
+            PriorityExecutor ex = (run == 2) ? new PriorityExecutor(workers, virtual) : new PriorityExecutor(workers);
+            Runnable tasks[] = new Runnable[1024];
+            Arrays.fill(tasks, task);
+            int batch_priorities[] = new int[tasks.length];
+            a0 = allocated_bytes();
+            t0 = System.nanoTime();
+            if (batch)
+            {
+                for(int i=0;i<size;i+=tasks.length)
+                {
+                    int n = Math.min(tasks.length, size-i);
+                    System.arraycopy(priorities, i, batch_priorities, 0, n);
+                    ex.submitAll(batch_priorities, tasks, 0, n);
+                }
+            }
+            else
+            {
+                for(int i=0;i<size;i++)
+                    ex.submit(priorities[i], task);
+            }
+            ex.shutdown();
+            ex.awaitTermination(1, TimeUnit.HOURS);
+            t1 = System.nanoTime();
+            report(name, "submit and run", t0, t1, size);
+            System.out.println(name+" allocated: "+((allocated_bytes()-a0)/Math.max(size, 1))+" bytes/task, steals "+ex.steals());
+        }
+        System.out.println("(checksum "+sum.sum()+")");
+        return;
+    }
+
+    public static void bench_reservoir(int size)
+    {
+        Random rnd = new Random(1);
+        double weights[] = new double[Math.min(size, 1 << 20)];
+        for(int i=0;i<weights.length;i++)
+            weights[i] = -Math.log(1 - rnd.nextDouble());
+        int mask = weights.length - 1;
+
+        for(int k : new int[] { 100, 10000 })
+        {
+            for(int jumps=0;jumps<2;jumps++)
+            {
+                String name = "WeightedReservoirSampler k="+k+((jumps == 1) ? " A-ExpJ" : " A-Res");
+                WeightedReservoirSampler r = new WeightedReservoirSampler(k, jumps == 1, 1);
+                long t0 = System.nanoTime();
+                for(int i=0;i<size;i++)
+                    r.offer(i, weights[i & mask]);
+                long t1 = System.nanoTime();
+                report(name, "offer", t0, t1, size);
+                System.out.println("(checksum "+r.minKey()+")");
+            }
+        }
+        return;
+    }
+
+    public static void bench_shortest(int size)
+    {
+        // a grid, like a road network:  each vertex has an edge to each of its 4 neighbours
+        int w = (int) Math.max(Math.sqrt(size), 2);
+        int n = w * w;
+        Random rnd = new Random(1);
+        int offsets[] = new int[n+1];
+        int targets[] = new int[4*n];
+        long weights[] = new long[4*n];
+        int m = 0;
+        for(int u=0;u<n;u++)
+        {
+            int x = u % w, y = u / w;
+            int neighbours[] = { (x > 0) ? u-1 : -1, (x < w-1) ? u+1 : -1, (y > 0) ? u-w : -1, (y < w-1) ? u+w : -1 };
+            for(int v : neighbours)
+            {
+                if (v < 0)
+                    continue;
+                targets[m] = v;
+                weights[m] = 1 + rnd.nextInt(1000);
+                m++;
+            }
+            offsets[u+1] = m;
+        }
+        targets = Arrays.copyOf(targets, m);
+        weights = Arrays.copyOf(weights, m);
+
+        int queries = 200;
+        int pairs[] = new int[2*queries];
+        for(int i=0;i<pairs.length;i++)
+            pairs[i] = rnd.nextInt(n);
+        int sources[] = new int[16];
+        int dests[] = new int[16];
+        for(int i=0;i<16;i++)
+        {
+            sources[i] = rnd.nextInt(n);
+            dests[i] = rnd.nextInt(n);
+        }
+
+        String names[] = { "packed lazy LongHeap", "indexed decrease-key", "radix heap" };
+        long all[] = new long[n];
+        long matrix[] = new long[sources.length * dests.length];
+        for(int strategy=ShortestPaths.PACKED;strategy<=ShortestPaths.RADIX;strategy++)
+        {
+            String name = "ShortestPaths ("+names[strategy]+")";
+            ShortestPaths sp = new ShortestPaths(offsets, targets, weights, strategy);
+
+            // warm up, and let the queues grow
+            sp.distancesFrom(0, all);
+            for(int i=0;i<20;i++)
+                sp.distance(pairs[2*i], pairs[2*i+1]);
+
+            long sum = 0;
+            long t0 = System.nanoTime();
+            for(int i=0;i<5;i++)
+            {
+                sp.distancesFrom(sources[i], all);
+                sum += all[dests[i]];
+            }
+            long t1 = System.nanoTime();
+            long a0 = allocated_bytes();
+            for(int i=0;i<queries;i++)
+                sum += sp.distance(pairs[2*i], pairs[2*i+1]);
+            long a1 = allocated_bytes();
+            long t2 = System.nanoTime();
+            sp.distances(sources, dests, matrix);
+            long t3 = System.nanoTime();
+            for(long d : matrix)
+                sum += d;
+
+            report(name, "single source, per vertex", t0, t1, 5*n);
+            System.out.println(name+" bidirectional: "+((t2-t1)/queries/1000)+" us/query, "+((a1-a0)/queries)+" bytes/query");
+            System.out.println(name+" 16x16 many-to-many: "+((t3-t2)/1000000)+" ms");
+            System.out.println("(checksum "+sum+")");
+        }
+        return;
+    }
+
+    public static void bench_replay(File file)
+        throws Exception
+    {
+        HeapTrace.Trace t = HeapTrace.read(file);
+        System.out.println("trace "+file+": "+t.size+" operations, key type "+(char) t.type);
+        if (t.type == HeapTrace.INDEX)
+        {
+            System.out.println("An indirect heap's trace can't be replayed:  its comparator isn't recorded.");
+            return;
+        }
+        if (t.size == 0)
+            return;
+        long latencies[] = new long[t.size];
+        int n = replayers().length;
+        long expected = 0;
+        for(int k=0;k<n;k++)
+        {
+            // warm up, then time the whole trace, then time each operation
+            replay(t, replayers()[k], null);
+            Replayer r = replayers()[k];
+            long a0 = allocated_bytes();
+            long t0 = System.nanoTime();
+            long sum = replay(t, r, null);
+            long t1 = System.nanoTime();
+            long a1 = allocated_bytes();
+            replay(t, replayers()[k], latencies);
+            Arrays.sort(latencies);
+
+            String name = r.name;
+            System.out.println(name+": "+(long) (t.size / ((t1-t0) / 1e9))+" ops/s, "
+                + (a1-a0)+" bytes allocated");
+            System.out.println(name+" latency ns: p50 "+latencies[(int) (t.size * 0.5)]
+                +" p90 "+latencies[(int) (t.size * 0.9)]
+                +" p99 "+latencies[(int) (t.size * 0.99)]
+                +" p99.9 "+latencies[(int) (t.size * 0.999)]
+                +" max "+latencies[t.size-1]);
+            if (k == 0)
+                expected = sum;
+            else if (sum != expected)
+                System.out.println(name+" returned different values from "+replayers()[0].name+"!");
+        }
+        return;
+    }
+
+    public static void bench_cache(int size)
+    {
+        Random rnd = new Random(1);
+        int budget = Math.max(size >>> 4, 64);
+        long keys[] = new long[size];
+        for(int i=0;i<size;i++)
+            keys[i] = (long) (Math.pow(rnd.nextDouble(), 3) * budget * 4);
+        String value = "value";
+
+        for(int round=0;round<2;round++)
+        {
+            LongObjectEvictingCache<String> c = new LongObjectEvictingCache<String>(budget);
+            long hits = 0;
+            long a0 = allocated_bytes();
+            long t0 = System.nanoTime();
+            for(int i=0;i<size;i++)
+            {
+                if (c.getAndBump(keys[i]) != null)
+                {
+                    hits++;
+                    continue;
+                }
+                c.put(keys[i], value, 1);
+                // evict in batches of 1/64th of the budget
+                if (c.size() > budget)
+                    c.evictUntil(budget - (budget >>> 6));
+            }
+            long t1 = System.nanoTime();
+            long a1 = allocated_bytes();
+            report("LongObjectEvictingCache", "getAndBump/put", t0, t1, size);
+            System.out.println("LongObjectEvictingCache hit rate "+((double) hits / size)
+                +", "+((double) (a1-a0) / size)+" bytes allocated/op");
+        }
+        return;
+    }
+
+    public static void bench_external(int size)
+        throws Exception
+    {
+        File in = File.createTempFile("heapbench", ".in");
+        File out = File.createTempFile("heapbench", ".out");
+        try
+        {
+            Random rnd = new Random(1);
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(in), 1 << 16));
+            for(int i=0;i<size;i++)
+                os.writeLong(rnd.nextLong());
+            os.close();
+
+            for(int mmap=0;mmap<2;mmap++)
+            {
+                ExternalSorter sorter = new ExternalSorter();
+                sorter.mmap = (mmap == 1);
+                long t0 = System.nanoTime();
+                sorter.sortLongs(in, out);
+                long t1 = System.nanoTime();
+                report("ExternalSorter"+(sorter.mmap ? " mmap" : ""), "sort", t0, t1, size);
+                System.out.println("ExternalSorter: "+sorter.runs+" runs, "+sorter.merge_passes+" merge passes, "
+                    +(long) (size * 8.0 / ((t1-t0) / 1e9) / (1 << 20))+" MB/s");
+            }
+        }
+        finally
+        {
+            in.delete();
+            out.delete();
+        }
+        return;
+    }
+
+    public static void main(String arg[])
+        throws Exception
+    {
+        IntHeap.experimental_warning = false;
+        LongHeap.experimental_warning = false;
+        LongBHeap.experimental_warning = false;
+        LongSegmentedHeap.experimental_warning = false;
+        PriorityExecutor.experimental_warning = false;
+
+        String which = (arg.length > 0) ? arg[0] : "all";
+        if (which.equals("replay"))
+        {
+            bench_replay(new File(arg[1]));
+            return;
+        }
+        if (which.equals("record"))
+        {
+            record(new File(arg[1]), (arg.length > 2) ? Integer.parseInt(arg[2]) : 10000000);
+            return;
+        }
+        int size = (arg.length > 1) ? Integer.parseInt(arg[1]) : 100000000;
+
+        if (which.equals("heap") || which.equals("bheap") || which.equals("all"))
+        {
+            if (!which.equals("bheap"))
+                bench_heap(size);
+            if (!which.equals("heap"))
+                bench_bheap(size);
+        }
+        if (which.equals("sequence") || which.equals("all"))
+            bench_sequence(size);
+        if (which.equals("transform") || which.equals("all"))
+            bench_transform(size);
+        if (which.equals("segmented") || which.equals("all"))
+            bench_segmented(size);
+        if (which.equals("bucket") || which.equals("all"))
+        {
+            bench_bucket(size, 256);
+            bench_bucket(size, 4096);
+        }
+        if (which.equals("streams") || which.equals("all"))
+            bench_streams(size);
+        if (which.equals("external") || which.equals("all"))
+            bench_external(size);
+        if (which.equals("cache") || which.equals("all"))
+            bench_cache(size);
+        if (which.equals("executor") || which.equals("all"))
+            bench_executor(size);
+        if (which.equals("reservoir") || which.equals("all"))
+            bench_reservoir(size);
+        if (which.equals("shortest") || which.equals("all"))
+            bench_shortest(size);
+        if (which.equals("weak") || which.equals("all"))
+            bench_weak(size);
+        if (which.equals("bursts") || which.equals("all"))
+        {
+            bench_bursts(size, false, false);
+            bench_bursts(size, true, false);
+            bench_bursts(size, false, true);
+            bench_bursts(size, true, true);
+        }
+        return;
+    }
+}
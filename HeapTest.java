@@ -14,8 +14,55 @@
 // limitations under the License.
 //
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Spliterator;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import com.carrotsearch.hppc.ExternalSorter;
+import com.carrotsearch.hppc.HeapCollectors;
+import com.carrotsearch.hppc.HeapStreams;
+import com.carrotsearch.hppc.HeapTrace;
+import com.carrotsearch.hppc.IntBHeap;
+import com.carrotsearch.hppc.IntBlockingHeap;
+import com.carrotsearch.hppc.IntBucketQueue;
+import com.carrotsearch.hppc.IntComparator;
 import com.carrotsearch.hppc.IntHeap;
+import com.carrotsearch.hppc.IntHeapSnapshot;
+import com.carrotsearch.hppc.IntIndirectHeap;
+import com.carrotsearch.hppc.IntParallelSelect;
+import com.carrotsearch.hppc.IntRunningQuantile;
+import com.carrotsearch.hppc.IntSegmentedHeap;
+import com.carrotsearch.hppc.IntSequenceHeap;
+import com.carrotsearch.hppc.IntUnaryOperator;
+import com.carrotsearch.hppc.IntWeakHeap;
+import com.carrotsearch.hppc.LongHeap;
+import com.carrotsearch.hppc.LongObjectEvictingCache;
+import com.carrotsearch.hppc.PriorityExecutor;
+import com.carrotsearch.hppc.ShortestPaths;
+import com.carrotsearch.hppc.WeightedReservoirSampler;
+import com.carrotsearch.hppc.cursors.IntCursor;
+import com.carrotsearch.hppc.procedures.IntProcedure;
+import com.carrotsearch.hppc.procedures.LongObjectProcedure;
 
 public class HeapTest
 {
@@ -66,20 +113,47 @@ public class HeapTest
         int n = 0;
         do
         {
-            IntHeap h = new IntHeap();
-            for(int i=0;i<p.length;i++)
-                h.add(p[i]);
-            for(int i=0;i<p.length;i++)
+            for(int mode=0;mode<4;mode++)
             {
-                int j = h.pop();
-                if (j != i)
+                boolean bottom_up = ((mode & 1) != 0);
+                IntHeap h = null;
+                IntIndirectHeap ih = null;
+                if ((mode & 2) == 0)
+                {
+                    h = new IntHeap();
+                    h.bottom_up = bottom_up;
+                }
+                else
+                {
+                    ih = new IntIndirectHeap(new IntComparator()
+                    {
+                        public int compare(int a, int b)
+                        {
+                            return (a < b) ? -1 : ((a == b) ? 0 : 1);
+                        }
+                    });
+                    ih.bottom_up = bottom_up;
+                }
+                for(int i=0;i<p.length;i++)
+                {
+                    if (h != null)
+                        h.add(p[i]);
+                    else
+                        ih.add(p[i]);
+                }
+                for(int i=0;i<p.length;i++)
                 {
-                    System.out.print("Heap doesn't work on input ");
-                    for(int k=0;k<p.length;k++)
+                    int j = (h != null) ? h.pop() : ih.pop();
+                    if (j != i)
                     {
-                        System.out.print(p[k]+" ");
+                        System.out.print("Heap doesn't work (mode "+mode+") on input ");
+                        for(int k=0;k<p.length;k++)
+                        {
+                            System.out.print(p[k]+" ");
+                        }
+                        System.out.println("");
+                        break;
                     }
-                    System.out.println("");
                 }
             }
             n++;
@@ -89,11 +163,1447 @@ public class HeapTest
         return;
     }
 
+    public static void parallel_test(int size)
+    {
+        Random rnd = new Random(size);
+        int data[] = new int[size];
+        for(int i=0;i<data.length;i++)
+            data[i] = rnd.nextInt();
+        int sorted[] = data.clone();
+        Arrays.sort(sorted);
+
+        IntHeap h = IntHeap.parallelFrom(data);
+        for(int i=0;i<sorted.length;i++)
+        {
+            if (h.pop() != sorted[i])
+            {
+                System.out.println("parallelFrom() doesn't work on size "+size);
+                break;
+            }
+        }
+
+        int k = Math.min(size, 1000);
+        int top[] = IntParallelSelect.topK(data, k);
+        for(int i=0;i<k;i++)
+        {
+            if (top[i] != sorted[sorted.length-1-i])
+            {
+                System.out.println("topK() doesn't work on size "+size);
+                break;
+            }
+        }
+
+        int stream_top[] = HeapCollectors.topK(IntStream.of(data).parallel(), k);
+        List<Integer> boxed_top = IntStream.of(data).boxed().parallel()
+            .collect(HeapCollectors.topKByInt(k, (Integer x) -> x));
+        IntHeap stream_heap = HeapCollectors.toHeap(IntStream.of(data).parallel());
+        if (!Arrays.equals(stream_top, top)
+            || !boxed_top.stream().mapToInt(Integer::intValue).boxed().collect(Collectors.toList())
+                   .equals(IntStream.of(top).boxed().collect(Collectors.toList()))
+            || stream_heap.size() != size
+            || (size > 0 && stream_heap.peek() != sorted[0]))
+        {
+            System.out.println("HeapCollectors don't work on size "+size);
+        }
+        System.out.println("parallel size tested: "+size);
+
+        return;
+    }
+
+    public static void stream_test(int size)
+    {
+        Random rnd = new Random(size);
+        IntHeap h = new IntHeap();
+        long sum = 0;
+        long hist[] = new long[16];
+        for(int i=0;i<size;i++)
+        {
+            int e = rnd.nextInt();
+            h.add(e);
+            sum += e;
+            hist[e >>> 28]++;
+        }
+
+        Spliterator.OfInt s = HeapStreams.spliterator(h);
+        if (!s.hasCharacteristics(Spliterator.SIZED | Spliterator.SUBSIZED) || s.getExactSizeIfKnown() != size)
+            System.out.println("HeapStreams spliterator isn't sized, size "+size);
+        if (HeapStreams.intStream(h).asLongStream().sum() != sum
+            || HeapStreams.intStream(h).parallel().asLongStream().sum() != sum)
+            System.out.println("HeapStreams intStream() doesn't work on size "+size);
+
+        final AtomicLong psum = new AtomicLong();
+        final AtomicLongArray phist = new AtomicLongArray(16);
+        h.parallelForEach(new IntProcedure()
+        {
+            public void apply(int e)
+            {
+                psum.addAndGet(e);
+                phist.incrementAndGet(e >>> 28);
+            }
+        });
+        boolean ok = (psum.get() == sum);
+        for(int i=0;i<16;i++)
+            ok &= (phist.get(i) == hist[i]);
+        if (!ok)
+            System.out.println("parallelForEach() doesn't work on size "+size);
+        System.out.println("streams tested: "+size);
+        return;
+    }
+
+    public static void snapshot_test(int seed)
+        throws Exception
+    {
+        Random rnd = new Random(seed);
+        final IntHeap h = new IntHeap();
+        h.buffered = ((seed & 1) != 0);
+        for(int i=0;i<1000;i++)
+            h.add(rnd.nextInt(1000));
+
+        // clone() is independent of the original
+        IntHeap c = h.clone();
+        IntHeap d = h.clone();
+        c.add(-1);
+        if (h.peek() == -1 || c.peek() != -1 || c.size() != h.size()+1)
+            System.out.println("clone() doesn't work, seed "+seed);
+        while (d.size() > 0)
+        {
+            if (d.pop() != h.pop())
+            {
+                System.out.println("clone() doesn't drain like the original, seed "+seed);
+                return;
+            }
+        }
+
+        // a snapshot is published at the start of the writer's first operation after a request
+        h.enableSnapshots();
+        IntHeapSnapshot first = h.snapshot();
+        h.add(5);
+        h.snapshot();
+        h.add(7);
+        h.add(9);
+        IntHeapSnapshot third = h.snapshot();
+        if (first == null || !first.isEmpty() || third.size() != 1 || third.peek() != 5)
+            System.out.println("snapshot() doesn't work, seed "+seed);
+
+        // readers check snapshots while the writer churns
+        final AtomicLong bad = new AtomicLong();
+        final AtomicLong seen = new AtomicLong();
+        final AtomicBoolean done = new AtomicBoolean();
+        Thread readers[] = new Thread[2];
+        for(int t=0;t<readers.length;t++)
+        {
+            readers[t] = new Thread()
+            {
+                public void run()
+                {
+                    while (!done.get())
+                    {
+                        IntHeapSnapshot s = h.snapshot();
+                        int n = 0;
+                        int prev = Integer.MIN_VALUE;
+                        for(Iterator<IntCursor> it=s.sortedIterator();it.hasNext();)
+                        {
+                            int e = it.next().value;
+                            if (e < prev || (n == 0 && e != s.peek()))
+                                bad.incrementAndGet();
+                            prev = e;
+                            n++;
+                        }
+                        if (n != s.size())
+                            bad.incrementAndGet();
+                        seen.incrementAndGet();
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for(int i=0;i<2000000;i++)
+        {
+            if (h.size() == 0 || rnd.nextBoolean())
+                h.add(rnd.nextInt(1000));
+            else
+                h.pop();
+        }
+        done.set(true);
+        for(Thread t : readers)
+            t.join();
+        if (bad.get() != 0)
+            System.out.println("Snapshots seen by readers don't work, seed "+seed);
+        System.out.println("snapshots tested: seed "+seed);
+        return;
+    }
+
+    public static void trace_test(int seed, boolean indirect)
+        throws Exception
+    {
+        // record a random workload, with the same checksum as HeapBenchmark.replay()
+        Random rnd = new Random(seed);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        HeapTrace trace = new HeapTrace(out, HeapTrace.INT);
+        IntHeap h = new IntHeap();
+        IntIndirectHeap ih = new IntIndirectHeap(new IntComparator()
+        {
+            public int compare(int a, int b)
+            {
+                return (a < b) ? -1 : ((a == b) ? 0 : 1);
+            }
+        });
+        h.tracer = trace;
+        ih.tracer = trace;
+        int ops[] = new int[100000];
+        int keys[] = new int[ops.length];
+        long sum = 0;
+        for(int i=0;i<ops.length;i++)
+        {
+            int size = indirect ? ih.size() : h.size();
+            int op = (size == 0) ? HeapTrace.ADD : 1 + rnd.nextInt((i % 1000 == 999) ? 5 : 4);
+            int e = (rnd.nextInt(4) == 0) ? rnd.nextInt() : rnd.nextInt(100);
+            long v = 0;
+            ops[i] = op;
+            keys[i] = e;
+            switch(op)
+            {
+                case HeapTrace.ADD:      if (indirect) ih.add(e); else h.add(e); break;
+                case HeapTrace.POP:      v = indirect ? ih.pop() : h.pop(); keys[i] = 0; break;
+                case HeapTrace.PUSH_POP: v = indirect ? ih.push_pop(e) : h.push_pop(e); break;
+                case HeapTrace.POP_PUSH: v = indirect ? ih.pop_push(e) : h.pop_push(e); break;
+                case HeapTrace.CLEAR:    if (indirect) ih.clear(); else h.clear(); keys[i] = 0; break;
+            }
+            sum = sum * 31 + v;
+        }
+        trace.close();
+
+        HeapTrace.Trace t = HeapTrace.read(new ByteArrayInputStream(out.toByteArray()));
+        boolean ok = (t.size == ops.length && t.type == HeapTrace.INT && trace.count == ops.length);
+        for(int i=0;ok && i<ops.length;i++)
+            ok = (t.ops[i] == ops[i] && t.keys[i] == keys[i]);
+        if (!ok)
+        {
+            System.out.println("HeapTrace doesn't read back, seed "+seed);
+            return;
+        }
+        for(HeapBenchmark.Replayer r : HeapBenchmark.replayers())
+        {
+            if (HeapBenchmark.replay(t, r, null) != sum)
+                System.out.println("Replay doesn't work on "+r.name+", seed "+seed);
+        }
+        if (indirect)
+        {
+            // with the comparator unrecorded, an index trace reads back but doesn't replay
+            ByteArrayOutputStream index_out = new ByteArrayOutputStream();
+            trace = new HeapTrace(index_out, HeapTrace.INDEX);
+            ih.tracer = trace;
+            ih.add(1);
+            trace.close();
+            t = HeapTrace.read(new ByteArrayInputStream(index_out.toByteArray()));
+            try
+            {
+                HeapBenchmark.replay(t, HeapBenchmark.replayers()[0], null);
+                System.out.println("Replay accepts an index trace, seed "+seed);
+            }
+            catch (IllegalArgumentException e)
+            {
+            }
+            if (t.type != HeapTrace.INDEX || t.size != 1 || t.keys[0] != 1)
+                System.out.println("HeapTrace doesn't read back an index trace, seed "+seed);
+        }
+        System.out.println("trace tested: seed "+seed+(indirect ? " indirect" : "")+", "+out.size()+" bytes");
+        return;
+    }
+
+    public static void executor_test(int seed)
+        throws Exception
+    {
+        Random rnd = new Random(seed);
+
+        // one worker, held up by a gate task, runs the queued tasks in priority order
+        final PriorityExecutor one = new PriorityExecutor(1);
+        final java.util.concurrent.CountDownLatch gate = new java.util.concurrent.CountDownLatch(1);
+        one.submit(Integer.MIN_VALUE, new Runnable()
+        {
+            public void run()
+            {
+                try
+                {
+                    gate.await();
+                }
+                catch (InterruptedException e)
+                {
+                }
+            }
+        });
+        final int n = 10000;
+        final int order[] = new int[2*n];
+        final int count[] = new int[1];
+        int priorities[] = new int[n];
+        Runnable tasks[] = new Runnable[n];
+        for(int i=0;i<2*n;i++)
+        {
+            final int p = rnd.nextInt(1000) - 500;
+            Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    order[count[0]++] = p;
+                }
+            };
+            if (i < n)
+            {
+                one.submit(p, task);
+            }
+            else
+            {
+                priorities[i-n] = p;
+                tasks[i-n] = task;
+            }
+        }
+        one.submitAll(priorities, tasks);
+        gate.countDown();
+        one.shutdown();
+        if (!one.awaitTermination(60, TimeUnit.SECONDS) || count[0] != 2*n)
+        {
+            System.out.println("PriorityExecutor doesn't run every task, seed "+seed);
+            return;
+        }
+        for(int i=1;i<2*n;i++)
+        {
+            if (order[i-1] > order[i])
+            {
+                System.out.println("PriorityExecutor doesn't run in priority order, seed "+seed);
+                return;
+            }
+        }
+        try
+        {
+            one.execute(tasks[0]);
+            System.out.println("PriorityExecutor accepts tasks after shutdown, seed "+seed);
+        }
+        catch (RejectedExecutionException e)
+        {
+        }
+
+        // several workers, with tasks that submit more tasks and tasks that throw
+        final AtomicLong errors = new AtomicLong();
+        final PriorityExecutor many = new PriorityExecutor(4, new java.util.concurrent.ThreadFactory()
+        {
+            public Thread newThread(Runnable r)
+            {
+                Thread t = new Thread(r);
+                t.setDaemon(true);
+                t.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler()
+                {
+                    public void uncaughtException(Thread t, Throwable e)
+                    {
+                        errors.incrementAndGet();
+                    }
+                });
+                return t;
+            }
+        });
+        final AtomicLong sum = new AtomicLong();
+        final int m = 200000;
+        final java.util.concurrent.CountDownLatch done = new java.util.concurrent.CountDownLatch(m);
+        for(int i=0;i<m/2;i++)
+        {
+            final int v = i;
+            many.submit(rnd.nextInt(), new Runnable()
+            {
+                public void run()
+                {
+                    sum.addAndGet(v);
+                    many.submit(v, new Runnable()
+                    {
+                        public void run()
+                        {
+                            sum.addAndGet(v);
+                            done.countDown();
+                            if (v % 1000 == 0)
+                                throw new IllegalStateException("expected");
+                        }
+                    });
+                    done.countDown();
+                }
+            });
+        }
+        if (!done.await(120, TimeUnit.SECONDS) || sum.get() != (long) (m/2) * (m/2 - 1))
+            System.out.println("PriorityExecutor with 4 workers doesn't run every task, seed "+seed);
+        many.shutdown();
+        if (!many.awaitTermination(60, TimeUnit.SECONDS) || errors.get() != m/2/1000 || many.pending() != 0)
+            System.out.println("PriorityExecutor with 4 workers doesn't shut down cleanly, seed "+seed);
+
+        // submit() racing shutdown():  every task which was accepted runs
+        for(int r=0;r<20;r++)
+        {
+            final PriorityExecutor racy = new PriorityExecutor(1 + r % 2);
+            final AtomicLong accepted = new AtomicLong();
+            final AtomicLong ran = new AtomicLong();
+            final Runnable task = new Runnable()
+            {
+                public void run()
+                {
+                    ran.incrementAndGet();
+                }
+            };
+            Thread submitters[] = new Thread[2];
+            for(int i=0;i<submitters.length;i++)
+            {
+                submitters[i] = new Thread()
+                {
+                    public void run()
+                    {
+                        try
+                        {
+                            while (true)
+                            {
+                                racy.submit(0, task);
+                                accepted.incrementAndGet();
+                            }
+                        }
+                        catch (RejectedExecutionException e)
+                        {
+                        }
+                    }
+                };
+                submitters[i].start();
+            }
+            Thread.sleep(rnd.nextInt(3));
+            racy.shutdown();
+            for(Thread t : submitters)
+                t.join();
+            if (!racy.awaitTermination(60, TimeUnit.SECONDS) || ran.get() != accepted.get() || racy.pending() != 0)
+            {
+                System.out.println("PriorityExecutor loses tasks submitted during shutdown, seed "+seed);
+                return;
+            }
+        }
+
+        return;
+    }
+
+    public static void cache_test(int seed)
+    {
+        // the reference maps each key to { value, score }
+        Random rnd = new Random(seed);
+        LongObjectEvictingCache<String> c = new LongObjectEvictingCache<String>(0);
+        final HashMap<Long, long[]> ref = new HashMap<Long, long[]>();
+        final boolean ok[] = { true };
+        LongObjectProcedure<String> check = new LongObjectProcedure<String>()
+        {
+            public void apply(long key, String value)
+            {
+                // victims come out in score order, and each is the lowest left
+                long e[] = ref.remove(key);
+                ok[0] &= (e != null && value.equals(""+e[0]));
+                for(long f[] : ref.values())
+                    ok[0] &= (f[1] >= e[1]);
+                return;
+            }
+        };
+        for(int i=0;i<20000 && ok[0];i++)
+        {
+            long key = rnd.nextInt(500);
+            long e[] = ref.get(key);
+            switch(rnd.nextInt(8))
+            {
+                case 0: case 1:
+                    long score = rnd.nextInt(1000);
+                    String previous = c.put(key, ""+i, score);
+                    ok[0] &= (e == null) ? (previous == null) : previous.equals(""+e[0]);
+                    ref.put(key, new long[] { i, score });
+                    break;
+                case 2:
+                    ok[0] &= (e == null) ? (c.getAndBump(key) == null) : c.getAndBump(key).equals(""+e[0]);
+                    if (e != null)
+                        e[1]++;
+                    break;
+                case 3:
+                    long delta = rnd.nextInt(100) - 50;
+                    ok[0] &= (c.bump(key, delta) == (e != null));
+                    if (e != null)
+                        e[1] += delta;
+                    break;
+                case 4:
+                    score = rnd.nextInt(1000);
+                    ok[0] &= (c.setScore(key, score) == (e != null));
+                    if (e != null)
+                        e[1] = score;
+                    break;
+                case 5:
+                    String v = c.remove(key);
+                    ok[0] &= (e == null) ? (v == null) : v.equals(""+e[0]);
+                    ref.remove(key);
+                    break;
+                case 6:
+                    ok[0] &= (c.score(key, -1000) == ((e == null) ? -1000 : e[1]));
+                    ok[0] &= (e == null) ? (c.get(key) == null) : c.get(key).equals(""+e[0]);
+                    break;
+                case 7:
+                    if (rnd.nextInt(20) == 0)
+                        c.evictUntil(rnd.nextInt(300), check);
+                    else if (rnd.nextInt(20) == 0)
+                        c.evictBelow(rnd.nextInt(300), check);
+                    break;
+            }
+            ok[0] &= (c.size() == ref.size());
+        }
+        if (!ok[0])
+            System.out.println("LongObjectEvictingCache doesn't work, seed "+seed);
+        c.evictUntil(0, check);
+        if (!ok[0] || !c.isEmpty() || !ref.isEmpty())
+            System.out.println("LongObjectEvictingCache doesn't evict everything, seed "+seed);
+        System.out.println("evicting cache tested: seed "+seed);
+        return;
+    }
+
+    public static void external_test(int size, boolean ints, boolean mmap, boolean nearly_sorted)
+        throws Exception
+    {
+        Random rnd = new Random(size);
+        long data[] = new long[size];
+        for(int i=0;i<size;i++)
+        {
+            data[i] = ints ? rnd.nextInt() : rnd.nextLong();
+            if (nearly_sorted)
+                data[i] = i * 1000L + rnd.nextInt(2000);
+        }
+        File in = File.createTempFile("heaptest", ".in");
+        File out = File.createTempFile("heaptest", ".out");
+        try
+        {
+            DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(in)));
+            for(int i=0;i<size;i++)
+            {
+                if (ints)
+                    os.writeInt((int) data[i]);
+                else
+                    os.writeLong(data[i]);
+            }
+            os.close();
+
+            // a small budget, so there are many runs and more than one merge pass
+            ExternalSorter sorter = new ExternalSorter();
+            sorter.memory_budget = 256 << 10;
+            sorter.block_size = 16 << 10;
+            sorter.merge_buffer = 32 << 10;
+            sorter.mmap = mmap;
+            if (ints)
+                sorter.sortInts(in, out);
+            else
+                sorter.sortLongs(in, out);
+
+            Arrays.sort(data);
+            DataInputStream is = new DataInputStream(new BufferedInputStream(new FileInputStream(out)));
+            boolean ok = (out.length() == (long) size * (ints ? 4 : 8));
+            for(int i=0;ok && i<size;i++)
+                ok = (data[i] == (ints ? is.readInt() : is.readLong()));
+            is.close();
+            if (!ok)
+                System.out.println("ExternalSorter doesn't work on size "+size+(ints ? " ints" : " longs"));
+            if (nearly_sorted && sorter.runs > 1)
+                System.out.println("ExternalSorter made "+sorter.runs+" runs of nearly sorted input, size "+size);
+
+            System.out.println("external sort tested: "+size+(ints ? " ints" : " longs")+(mmap ? " mmap" : "")
+                +(nearly_sorted ? " nearly sorted" : "")+", "+sorter.runs+" runs, "+sorter.merge_passes+" merge passes");
+
+            // too little temporary space
+            if (size > 100000)
+            {
+                sorter.temp_budget = (long) size * (ints ? 4 : 8) / 2;
+                try
+                {
+                    sorter.sortLongs(in, out);
+                    System.out.println("ExternalSorter doesn't enforce the temp budget, size "+size);
+                }
+                catch (IOException e)
+                {
+                }
+            }
+
+            // a temp budget below one block, with runs which all fit in the first block
+            if (size > 2048 && size * 8 < (256 << 10))
+            {
+                ExternalSorter small = new ExternalSorter();
+                small.block_size = 256 << 10;
+                small.memory_budget = 2 * small.block_size + 12 * 2048;
+                small.mmap = mmap;
+                small.temp_budget = 4096;
+                try
+                {
+                    small.sortLongs(in, out);
+                    System.out.println("ExternalSorter overruns a temp budget below one block, size "+size);
+                }
+                catch (IOException e)
+                {
+                }
+            }
+        }
+        finally
+        {
+            in.delete();
+            out.delete();
+        }
+        return;
+    }
+
+    public static void bheap_test(int size, int page_shift)
+    {
+        Random rnd = new Random(size);
+        int data[] = new int[size];
+        for(int i=0;i<data.length;i++)
+            data[i] = rnd.nextInt(size+1);
+
+        // fill, then churn with pop_push() and push_pop() before draining
+        IntBHeap h = new IntBHeap(0, page_shift);
+        IntHeap ref = new IntHeap();
+        for(int i=0;i<data.length;i++)
+        {
+            h.add(data[i]);
+            ref.add(data[i]);
+        }
+        for(int i=0;i<data.length;i++)
+        {
+            int e = rnd.nextInt(size+1);
+            if (((i & 1) == 0) ? (h.pop_push(e) != ref.pop_push(e)) : (h.push_pop(e) != ref.push_pop(e)))
+            {
+                System.out.println("BHeap churn doesn't work on size "+size+" page shift "+page_shift);
+                return;
+            }
+        }
+        for(int i=0;i<data.length;i++)
+        {
+            if (h.pop() != ref.pop())
+            {
+                System.out.println("BHeap doesn't work on size "+size+" page shift "+page_shift);
+                return;
+            }
+        }
+        if (!h.isEmpty())
+            System.out.println("BHeap not empty after draining, size "+size+" page shift "+page_shift);
+
+        return;
+    }
+
+    public static void segmented_test(int size, int chunk_shift)
+    {
+        Random rnd = new Random(size);
+        IntSegmentedHeap h = new IntSegmentedHeap(chunk_shift);
+        IntHeap ref = new IntHeap();
+
+        // run twice, the second time on the chunks kept by clear(), then trimmed
+        for(int pass=0;pass<2;pass++)
+        {
+            for(int i=0;i<size;i++)
+            {
+                int e = rnd.nextInt(size+1);
+                h.add(e);
+                ref.add(e);
+            }
+            final long sum[] = new long[1];
+            h.forEach(new IntProcedure()
+            {
+                public void apply(int e)
+                {
+                    sum[0] += e;
+                }
+            });
+            long ref_sum = 0;
+            for(int i=0;i<ref.size();i++)
+                ref_sum += ref.heap[i];
+            if (h.size() != size || sum[0] != ref_sum)
+                System.out.println("SegmentedHeap forEach() doesn't work on size "+size+" chunk shift "+chunk_shift);
+            for(int i=0;i<size;i++)
+            {
+                int e = rnd.nextInt(size+1);
+                if (((i & 1) == 0) ? (h.pop_push(e) != ref.pop_push(e)) : (h.push_pop(e) != ref.push_pop(e)))
+                {
+                    System.out.println("SegmentedHeap churn doesn't work on size "+size+" chunk shift "+chunk_shift);
+                    return;
+                }
+            }
+            for(int i=0;i<size/2;i++)
+            {
+                if (h.pop() != ref.pop())
+                {
+                    System.out.println("SegmentedHeap doesn't work on size "+size+" chunk shift "+chunk_shift);
+                    return;
+                }
+            }
+            if (pass == 0)
+            {
+                h.clear();
+                ref.clear();
+            }
+        }
+        h.trim();
+        if (h.chunks_used != (int) (h.size() >>> chunk_shift) + 1)
+            System.out.println("SegmentedHeap trim() keeps "+h.chunks_used+" chunks, size "+size+" chunk shift "+chunk_shift);
+        while (ref.size() > 0)
+        {
+            if (h.pop() != ref.pop())
+            {
+                System.out.println("SegmentedHeap doesn't work after trim(), size "+size+" chunk shift "+chunk_shift);
+                return;
+            }
+        }
+        if (!h.isEmpty())
+            System.out.println("SegmentedHeap not empty after draining, size "+size+" chunk shift "+chunk_shift);
+
+        return;
+    }
+
+    public static void blocking_test(final int producers, final int consumers, final int per_producer)
+        throws Exception
+    {
+        final IntBlockingHeap h = new IntBlockingHeap();
+        final AtomicLong sum = new AtomicLong();
+        final AtomicLong count = new AtomicLong();
+        final int total = producers * per_producer;
+
+        Thread threads[] = new Thread[producers + consumers];
+        for(int t=0;t<producers;t++)
+        {
+            final int base = t * per_producer;
+            threads[t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    int batch[] = new int[7];
+                    for(int i=0;i<per_producer;)
+                    {
+                        if ((i & 1) == 0)
+                        {
+                            h.put(base + i);
+                            i++;
+                            continue;
+                        }
+                        int n = Math.min(batch.length, per_producer - i);
+                        for(int j=0;j<n;j++)
+                            batch[j] = base + i + j;
+                        h.put(batch, 0, n);
+                        i += n;
+                    }
+                }
+            });
+        }
+        for(int t=0;t<consumers;t++)
+        {
+            threads[producers + t] = new Thread(new Runnable()
+            {
+                public void run()
+                {
+                    int batch[] = new int[5];
+                    try
+                    {
+                        while (count.get() < total)
+                        {
+                            int n = h.drainTo(batch, batch.length);
+                            if (n == 0)
+                            {
+                                int e = h.poll(1, TimeUnit.MILLISECONDS, -1);
+                                if (e < 0)
+                                    continue;
+                                batch[0] = e;
+                                n = 1;
+                            }
+                            for(int j=0;j<n;j++)
+                                sum.addAndGet(batch[j]);
+                            count.addAndGet(n);
+                        }
+                    }
+                    catch (InterruptedException e)
+                    {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+        for(Thread t : threads)
+            t.start();
+        for(Thread t : threads)
+            t.join();
+
+        long expected = ((long) total) * (total - 1) / 2;
+        if (count.get() != total || sum.get() != expected || !h.isEmpty())
+            System.out.println("BlockingHeap doesn't work: count "+count.get()+" sum "+sum.get()+" expected "+expected);
+
+        // a bad range adds nothing, and a batch of zero doesn't wait
+        try
+        {
+            h.put(new int[] { 1, 2, 3 }, 2, 2);
+            System.out.println("BlockingHeap put() accepts a bad range");
+        }
+        catch (IndexOutOfBoundsException e)
+        {
+        }
+        if (h.size() != 0 || h.takeTo(new int[4], 0) != 0 || h.takeTo(new int[0], 4) != 0)
+            System.out.println("BlockingHeap put() or takeTo() doesn't check its range");
+        h.put(5);
+        if (h.drainTo(new int[4], -1) != 0 || h.takeTo(new int[4], -1) != 0 || h.size() != 1 || h.drainTo(new int[4], 4) != 1)
+            System.out.println("BlockingHeap drainTo() or takeTo() doesn't treat a negative max as zero");
+        System.out.println("blocking heap tested: "+producers+" producers, "+consumers+" consumers");
+
+        return;
+    }
+
+    public static void quantile_test(int num, int den, int window)
+    {
+        Random rnd = new Random(num * 31 + window);
+        IntRunningQuantile q = new IntRunningQuantile(num / (double) den, window);
+        ArrayDeque<Integer> ref = new ArrayDeque<Integer>();
+
+        for(int i=0;i<5000;i++)
+        {
+            // without a window, shrink now and then so the ring wraps and grows
+            if (window == 0 && ref.size() > 0 && rnd.nextInt(3) == 0)
+            {
+                if (q.removeOldest() != ref.removeFirst())
+                {
+                    System.out.println("RunningQuantile removeOldest() doesn't work");
+                    return;
+                }
+            }
+            else
+            {
+                int e = rnd.nextInt(1000);
+                q.add(e);
+                ref.addLast(e);
+                if (window > 0 && ref.size() > window)
+                    ref.removeFirst();
+            }
+            if (ref.size() == 0)
+                continue;
+
+            int sorted[] = new int[ref.size()];
+            int j = 0;
+            for(int e : ref)
+                sorted[j++] = e;
+            Arrays.sort(sorted);
+            int n = sorted.length;
+            int rank = Math.min(Math.max((num * n + den - 1) / den, 1), n);
+            if (q.size() != n || q.quantile() != sorted[rank-1])
+            {
+                System.out.println("RunningQuantile doesn't work for "+num+"/"+den+" window "+window);
+                return;
+            }
+        }
+        System.out.println("running quantile tested: "+num+"/"+den+" window "+window);
+
+        return;
+    }
+
+    public static void transform_test(int seed)
+        throws IOException
+    {
+        Random rnd = new Random(seed);
+        IntUnaryOperator decay = new IntUnaryOperator()
+        {
+            public int apply(int e)
+            {
+                return (e >> 1) - 1000;
+            }
+        };
+        IntUnaryOperator scramble = new IntUnaryOperator()
+        {
+            public int apply(int e)
+            {
+                return (e * 7919) % 1009;
+            }
+        };
+
+        for(int round=0;round<200;round++)
+        {
+            int n = rnd.nextInt(1 << rnd.nextInt(14));
+            boolean monotone = rnd.nextBoolean();
+            IntUnaryOperator f = monotone ? decay : scramble;
+            IntHeap h = new IntHeap();
+            IntIndirectHeap ih = new IntIndirectHeap(new IntComparator()
+            {
+                public int compare(int a, int b)
+                {
+                    return (a < b) ? -1 : ((a == b) ? 0 : 1);
+                }
+            });
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            HeapTrace trace = new HeapTrace(out, HeapTrace.INT);
+            h.tracer = trace;
+            h.buffered = rnd.nextBoolean();
+            int expected[] = new int[n];
+            for(int i=0;i<n;i++)
+            {
+                int e = rnd.nextInt(1000000);
+                h.add(e);
+                ih.add(e);
+                expected[i] = f.apply(e);
+            }
+            Arrays.sort(expected);
+
+            h.transformAll(f, monotone);
+            ih.transformAll(f, monotone);
+            trace.close();
+            if (h.size() != n || ih.size() != n)
+            {
+                System.out.println("transformAll() changes the size, seed "+seed);
+                return;
+            }
+
+            // the trace replays to the transformed contents
+            HeapTrace.Trace t = HeapTrace.read(new ByteArrayInputStream(out.toByteArray()));
+            IntHeap replayed = new IntHeap();
+            for(int i=0;i<t.size;i++)
+            {
+                if (t.ops[i] == HeapTrace.ADD)
+                    replayed.add((int) t.keys[i]);
+                else if (t.ops[i] == HeapTrace.CLEAR)
+                    replayed.clear();
+            }
+
+            for(int i=0;i<n;i++)
+            {
+                if (h.pop() != expected[i] || ih.pop() != expected[i] || replayed.pop() != expected[i])
+                {
+                    System.out.println("transformAll() doesn't work, monotone "+monotone+", size "+n+", seed "+seed);
+                    return;
+                }
+            }
+        }
+
+        // with assertions on, a function wrongly declared monotone is caught
+        boolean assertions = false;
+        assert (assertions = true);
+        if (assertions)
+        {
+            IntHeap h = new IntHeap();
+            for(int i=0;i<100;i++)
+                h.add(i);
+            try
+            {
+                h.transformAll(scramble, true);
+                System.out.println("transformAll() doesn't check a monotone function, seed "+seed);
+            }
+            catch (AssertionError e)
+            {
+            }
+        }
+        return;
+    }
+
+    public static void reservoir_test(boolean jumps)
+    {
+        // a small stream is sampled entirely, except for zero weights
+        WeightedReservoirSampler all = new WeightedReservoirSampler(100, jumps, 1);
+        for(int i=0;i<50;i++)
+            all.offer(i, (i == 7) ? 0.0 : i + 1.0);
+        long sample[] = new long[100];
+        int n = all.sample(sample);
+        Arrays.sort(sample, 0, n);
+        if (n != 49 || sample[0] != 0 || sample[7] != 8 || sample[48] != 49 || all.count != 50)
+            System.out.println("WeightedReservoirSampler doesn't keep a small stream, jumps "+jumps);
+
+        // with k = 1, item i is picked with probability w_i / sum(w); also when the stream
+        // is split in two samplers which are combined
+        int items = 10;
+        int trials = 40000;
+        int hits[] = new int[items];
+        int combined_hits[] = new int[items];
+        for(int t=0;t<trials;t++)
+        {
+            WeightedReservoirSampler r = new WeightedReservoirSampler(1, jumps, t);
+            WeightedReservoirSampler a = new WeightedReservoirSampler(1, jumps, -1-t);
+            WeightedReservoirSampler b = new WeightedReservoirSampler(1, jumps, t+trials);
+            for(int i=0;i<items;i++)
+            {
+                r.offer(i, i + 1.0);
+                (((i & 1) == 0) ? a : b).offer(i, i + 1.0);
+            }
+            r.sample(sample);
+            hits[(int) sample[0]]++;
+            a.combine(b);
+            a.sample(sample);
+            combined_hits[(int) sample[0]]++;
+        }
+        for(int i=0;i<items;i++)
+        {
+            double expected = trials * (i + 1.0) / 55;
+            double sigma = Math.sqrt(expected);
+            if (Math.abs(hits[i] - expected) > 5 * sigma || Math.abs(combined_hits[i] - expected) > 5 * sigma)
+            {
+                System.out.println("WeightedReservoirSampler is biased, jumps "+jumps+", item "+i+": "+hits[i]+" and "+combined_hits[i]+" picks, expected "+expected);
+                return;
+            }
+        }
+
+        // a long stream with a few heavy items:  they are all in the sample of 20
+        WeightedReservoirSampler heavy = new WeightedReservoirSampler(20, jumps, 2);
+        for(int i=0;i<1000000;i++)
+            heavy.offer(i, (i % 100000 == 0) ? 1e12 : 1.0);
+        int m = heavy.sampleInts(new int[20]);
+        int found = 0;
+        for(int i=0;i<heavy.size();i++)
+        {
+            if (heavy.payloads[i] % 100000 == 0)
+                found++;
+        }
+        if (m != 20 || found != 10)
+            System.out.println("WeightedReservoirSampler misses heavy items, jumps "+jumps+": "+found);
+        return;
+    }
+
+    /**
+     * Dijkstra without a heap, for checking ShortestPaths.
+     */
+    public static long[] naive_distances(int offsets[], int targets[], long weights[], int source)
+    {
+        int n = offsets.length - 1;
+        long dist[] = new long[n];
+        boolean done[] = new boolean[n];
+        Arrays.fill(dist, ShortestPaths.UNREACHABLE);
+        dist[source] = 0;
+        while (true)
+        {
+            int u = -1;
+            for(int v=0;v<n;v++)
+            {
+                if (!done[v] && dist[v] != ShortestPaths.UNREACHABLE && (u < 0 || dist[v] < dist[u]))
+                    u = v;
+            }
+            if (u < 0)
+                return dist;
+            done[u] = true;
+            for(int e=offsets[u];e<offsets[u+1];e++)
+                dist[targets[e]] = Math.min(dist[targets[e]], dist[u] + weights[e]);
+        }
+    }
+
+    public static void shortest_test(int seed)
+    {
+        Random rnd = new Random(seed);
+        int n = 1 + rnd.nextInt(1500);
+        int degree = 1 + rnd.nextInt(5);
+
+        // a random graph with zero weights, self loops and parallel edges
+        int offsets[] = new int[n+1];
+        for(int u=0;u<n;u++)
+            offsets[u+1] = offsets[u] + rnd.nextInt(2*degree);
+        int m = offsets[n];
+        int targets[] = new int[m];
+        long weights[] = new long[m];
+        float float_weights[] = new float[m];
+        for(int e=0;e<m;e++)
+        {
+            targets[e] = rnd.nextInt(n);
+            weights[e] = rnd.nextInt(100);
+            float_weights[e] = weights[e];
+        }
+
+        int sources[] = new int[5];
+        int dests[] = new int[7];
+        for(int i=0;i<sources.length;i++)
+            sources[i] = rnd.nextInt(n);
+        for(int j=0;j<dests.length;j++)
+            dests[j] = rnd.nextInt(n);
+        long expected[][] = new long[sources.length][];
+        for(int i=0;i<sources.length;i++)
+            expected[i] = naive_distances(offsets, targets, weights, sources[i]);
+
+        for(int strategy=ShortestPaths.PACKED;strategy<=ShortestPaths.RADIX;strategy++)
+        {
+            ShortestPaths sp = new ShortestPaths(offsets, targets, weights, strategy);
+            ShortestPaths fsp = new ShortestPaths(offsets, targets, float_weights, strategy);
+            long all[] = new long[n];
+            float float_all[] = new float[n];
+            long matrix[] = new long[sources.length * dests.length];
+            float float_matrix[] = new float[sources.length * dests.length];
+            sp.distances(sources, dests, matrix);
+            fsp.floatDistances(sources, dests, float_matrix);
+            for(int i=0;i<sources.length;i++)
+            {
+                sp.distancesFrom(sources[i], all);
+                fsp.floatDistancesFrom(sources[i], float_all);
+                for(int v=0;v<n;v++)
+                {
+                    long d = expected[i][v];
+                    float fd = (d == ShortestPaths.UNREACHABLE) ? Float.POSITIVE_INFINITY : d;
+                    if (all[v] != d || float_all[v] != fd)
+                    {
+                        System.out.println("ShortestPaths distancesFrom() doesn't work, strategy "+strategy+", seed "+seed);
+                        return;
+                    }
+                    if (sp.distance(sources[i], v) != d || fsp.floatDistance(sources[i], v) != fd)
+                    {
+                        System.out.println("ShortestPaths distance() doesn't work, strategy "+strategy+", seed "+seed+": "+sp.distance(sources[i], v)+" for "+d);
+                        return;
+                    }
+                }
+                for(int j=0;j<dests.length;j++)
+                {
+                    long d = expected[i][dests[j]];
+                    float fd = (d == ShortestPaths.UNREACHABLE) ? Float.POSITIVE_INFINITY : d;
+                    if (matrix[i*dests.length + j] != d || float_matrix[i*dests.length + j] != fd)
+                    {
+                        System.out.println("ShortestPaths distances() doesn't work, strategy "+strategy+", seed "+seed);
+                        return;
+                    }
+                }
+            }
+        }
+
+        // paths up to the bound work, and longer ones throw rather than wrap or read as unreachable
+        int chain_offsets[] = { 0, 1, 2, 2 };
+        int chain_targets[] = { 1, 2 };
+        for(int strategy=ShortestPaths.INDEXED;strategy<=ShortestPaths.RADIX;strategy++)
+        {
+            ShortestPaths sp = new ShortestPaths(chain_offsets, chain_targets, new long[] { Long.MAX_VALUE - 2, 1 }, strategy);
+            ShortestPaths over = new ShortestPaths(chain_offsets, chain_targets, new long[] { Long.MAX_VALUE - 1, 1 }, strategy);
+            ShortestPaths fsp = new ShortestPaths(chain_offsets, chain_targets, new float[] { 2e38f, 1e38f }, strategy);
+            ShortestPaths float_over = new ShortestPaths(chain_offsets, chain_targets, new float[] { 3e38f, 3e38f }, strategy);
+            if (sp.distance(0, 2) != Long.MAX_VALUE - 1 || fsp.floatDistance(0, 2) != 2e38f + 1e38f)
+            {
+                System.out.println("ShortestPaths doesn't work near the overflow bound, strategy "+strategy+", seed "+seed);
+                return;
+            }
+            int overflows = 0;
+            try
+            {
+                over.distancesFrom(0, new long[3]);
+            }
+            catch (ArithmeticException e)
+            {
+                overflows++;
+            }
+            try
+            {
+                over.distance(0, 2);
+            }
+            catch (ArithmeticException e)
+            {
+                overflows++;
+            }
+            try
+            {
+                float_over.floatDistance(0, 2);
+            }
+            catch (ArithmeticException e)
+            {
+                overflows++;
+            }
+            if (overflows != 3)
+            {
+                System.out.println("ShortestPaths doesn't detect overflow, strategy "+strategy+", seed "+seed);
+                return;
+            }
+        }
+        return;
+    }
+
+    public static void buffered_test(int seed)
+    {
+        Random rnd = new Random(seed);
+        IntHeap h = new IntHeap();
+        IntHeap ref = new IntHeap();
+        h.buffered = true;
+
+        for(int round=0;round<500;round++)
+        {
+            // a burst of adds, of very different sizes, then a few other operations
+            int burst = rnd.nextInt(1 << rnd.nextInt(12));
+            for(int i=0;i<burst;i++)
+            {
+                int e = rnd.nextInt(100000);
+                h.add(e);
+                ref.add(e);
+            }
+            int ops = rnd.nextInt(50);
+            for(int i=0;i<ops && ref.size() > 0;i++)
+            {
+                int e = rnd.nextInt(100000);
+                boolean ok;
+                switch(rnd.nextInt(5))
+                {
+                    case 0:  ok = (h.peek() == ref.peek()); break;
+                    case 1:  ok = (h.push_pop(e) == ref.push_pop(e)); break;
+                    case 2:  ok = (h.pop_push(e) == ref.pop_push(e)); break;
+                    case 3:  ok = (h.contains(e) == ref.contains(e)); break;
+                    default: ok = (h.pop() == ref.pop()); break;
+                }
+                if (!ok || h.size() != ref.size())
+                {
+                    System.out.println("Buffered heap doesn't work, seed "+seed);
+                    return;
+                }
+            }
+            if ((round & 31) == 0)
+                h.buffered = !h.buffered;
+        }
+        while(ref.size() > 0)
+        {
+            if (h.pop() != ref.pop())
+            {
+                System.out.println("Buffered heap doesn't drain, seed "+seed);
+                return;
+            }
+        }
+        System.out.println("buffered heap tested: seed "+seed);
+
+        return;
+    }
+
+    public static void sequence_test(int seed)
+    {
+        // small parameters, so runs are merged through several groups
+        Random rnd = new Random(seed);
+        IntSequenceHeap h = new IntSequenceHeap(1 + rnd.nextInt(16), 1 + rnd.nextInt(8), 2 + rnd.nextInt(4));
+        IntHeap ref = new IntHeap();
+
+        for(int round=0;round<300;round++)
+        {
+            int adds = rnd.nextInt(1 << rnd.nextInt(10));
+            for(int i=0;i<adds;i++)
+            {
+                int e = rnd.nextInt(10000);
+                h.add(e);
+                ref.add(e);
+            }
+            int pops = rnd.nextInt(Math.max(ref.size(), 1));
+            for(int i=0;i<pops;i++)
+            {
+                if (h.peek() != ref.peek() || h.pop() != ref.pop() || h.size() != ref.size())
+                {
+                    System.out.println("SequenceHeap doesn't work, seed "+seed);
+                    return;
+                }
+            }
+        }
+        while(ref.size() > 0)
+        {
+            if (h.pop() != ref.pop())
+            {
+                System.out.println("SequenceHeap doesn't drain, seed "+seed);
+                return;
+            }
+        }
+        if (!h.isEmpty())
+            System.out.println("SequenceHeap not empty after draining, seed "+seed);
+        System.out.println("sequence heap tested: seed "+seed);
+
+        return;
+    }
+
+    public static void weak_test(int size)
+    {
+        Random rnd = new Random(size);
+        int data[] = new int[size];
+        for(int i=0;i<data.length;i++)
+            data[i] = rnd.nextInt(size+1);
+        final long count[] = new long[1];
+        IntComparator comp = new IntComparator()
+        {
+            public int compare(int a, int b)
+            {
+                count[0]++;
+                return (a < b) ? -1 : ((a == b) ? 0 : 1);
+            }
+        };
+
+        // fill, churn, then drain, checking against IntHeap
+        IntWeakHeap h = new IntWeakHeap(comp, 0);
+        IntHeap ref = new IntHeap();
+        for(int i=0;i<data.length;i++)
+        {
+            h.add(data[i]);
+            ref.add(data[i]);
+        }
+        for(int i=0;i<data.length;i++)
+        {
+            int e = rnd.nextInt(size+1);
+            if (((i & 1) == 0) ? (h.pop_push(e) != ref.pop_push(e)) : (h.push_pop(e) != ref.push_pop(e)))
+            {
+                System.out.println("WeakHeap churn doesn't work on size "+size);
+                return;
+            }
+        }
+        count[0] = 0;
+        long bound = 0;
+        for(int i=0;i<data.length;i++)
+        {
+            bound += 32 - Integer.numberOfLeadingZeros(ref._size - 1);
+            if (h.pop() != ref.pop())
+            {
+                System.out.println("WeakHeap doesn't work on size "+size);
+                return;
+            }
+        }
+        if (!h.isEmpty())
+            System.out.println("WeakHeap not empty after draining, size "+size);
+        if (count[0] > bound)
+            System.out.println("WeakHeap pop() takes "+count[0]+" comparisons, more than ceil(lg n) each, size "+size);
+
+        // from() and sort()
+        IntWeakHeap b = IntWeakHeap.from(comp, data);
+        int sorted[] = data.clone();
+        Arrays.sort(sorted);
+        for(int i=0;i<data.length;i++)
+        {
+            if (b.pop() != sorted[i])
+            {
+                System.out.println("WeakHeap from() doesn't work on size "+size);
+                return;
+            }
+        }
+        int a[] = new int[data.length+2];
+        System.arraycopy(data, 0, a, 1, data.length);
+        a[0] = Integer.MAX_VALUE;
+        a[a.length-1] = Integer.MIN_VALUE;
+        IntWeakHeap.sort(a, 1, data.length, comp);
+        if (a[0] != Integer.MAX_VALUE || a[a.length-1] != Integer.MIN_VALUE
+            || !Arrays.equals(Arrays.copyOfRange(a, 1, data.length+1), sorted))
+            System.out.println("WeakHeap sort() doesn't work on size "+size);
+
+        return;
+    }
+
+    public static void bucket_test(int range, boolean payloads, int seed)
+    {
+        // the reference holds (priority << 32 | sequence number), which pops in FIFO order
+        // within a priority; the sequence number is the payload
+        Random rnd = new Random(seed);
+        IntBucketQueue q = new IntBucketQueue(range, payloads);
+        LongHeap ref = new LongHeap();
+        int seq = 0;
+        int dst[] = new int[1 << 16];
+        for(int round=0;round<200;round++)
+        {
+            int adds = rnd.nextInt(2000);
+            for(int i=0;i<adds;i++)
+            {
+                int p = rnd.nextInt(range);
+                if (payloads)
+                    q.add(p, seq);
+                else
+                    q.add(p);
+                ref.add(((long) p << 32) | seq++);
+            }
+            int pops = rnd.nextInt(2100);
+            for(int i=0;i<pops && ref._size > 0;i++)
+            {
+                long e = ref.peek();
+                int p = (int) (e >>> 32);
+                if (q.size() != ref._size || q.minPriority() != p)
+                {
+                    System.out.println("BucketQueue doesn't work, range "+range+" seed "+seed);
+                    return;
+                }
+                if (rnd.nextInt(50) == 0)
+                {
+                    int n = q.drainMin(dst);
+                    for(int j=0;j<n;j++)
+                    {
+                        e = ref.pop();
+                        if ((int) (e >>> 32) != p || (payloads && dst[j] != (int) e))
+                        {
+                            System.out.println("BucketQueue drainMin() doesn't work, range "+range+" seed "+seed);
+                            return;
+                        }
+                    }
+                    if (ref._size > 0 && (int) (ref.peek() >>> 32) == p)
+                    {
+                        System.out.println("BucketQueue drainMin() left elements, range "+range+" seed "+seed);
+                        return;
+                    }
+                }
+                else if (payloads ? (q.popPayload() != (int) ref.pop()) : (q.pop() != (int) (ref.pop() >>> 32)))
+                {
+                    System.out.println("BucketQueue pop doesn't work, range "+range+" seed "+seed);
+                    return;
+                }
+            }
+            if (rnd.nextInt(100) == 0)
+            {
+                q.clear();
+                ref.clear();
+            }
+        }
+        while (ref._size > 0)
+        {
+            if (q.pop() != (int) (ref.pop() >>> 32))
+            {
+                System.out.println("BucketQueue doesn't drain, range "+range+" seed "+seed);
+                return;
+            }
+        }
+        if (!q.isEmpty())
+            System.out.println("BucketQueue not empty after draining, range "+range+" seed "+seed);
+        return;
+    }
+
     public static void main(String arg[])
         throws Exception
     {
         for(int size=0;size<=10;size++)
             perm_test(size);
+        for(int size=0;size<=2000000;size=size*10+1)
+            parallel_test(size);
+        for(int size=0;size<=2000000;size=size*10+1)
+            stream_test(size);
+        for(int page_shift=2;page_shift<=9;page_shift++)
+        {
+            for(int size=0;size<=200000;size=size*3+1)
+                bheap_test(size, page_shift);
+            System.out.println("bheap page shift tested: "+page_shift);
+        }
+        for(int chunk_shift : new int[] { 2, 3, 5, 10, 20 })
+        {
+            for(int size=0;size<=200000;size=size*3+1)
+                segmented_test(size, chunk_shift);
+        }
+        System.out.println("segmented heap tested");
+        for(int seed=0;seed<4;seed++)
+            buffered_test(seed);
+        for(int seed=0;seed<4;seed++)
+            transform_test(seed);
+        reservoir_test(false);
+        reservoir_test(true);
+        for(int seed=0;seed<20;seed++)
+            shortest_test(seed);
+        for(int seed=0;seed<8;seed++)
+            sequence_test(seed);
+        for(int seed=0;seed<2;seed++)
+            snapshot_test(seed);
+        for(int seed=0;seed<4;seed++)
+            cache_test(seed);
+        for(int seed=0;seed<2;seed++)
+            executor_test(seed);
+        for(int size : new int[] { 0, 1, 1000, 21845, 21846, 1000000 })
+        {
+            external_test(size, false, false, false);
+            external_test(size, true, false, false);
+            external_test(size, false, true, false);
+        }
+        external_test(1000000, false, false, true);
+        for(int seed=0;seed<2;seed++)
+        {
+            trace_test(seed, false);
+            trace_test(seed, true);
+        }
+        for(int size=0;size<=300000;size=size*3+1)
+            weak_test(size);
+        System.out.println("weak heap tested");
+        for(int range : new int[] { 1, 7, 64, 256, 4096, 4097, 300000 })
+        {
+            for(int seed=0;seed<2;seed++)
+            {
+                bucket_test(range, false, seed);
+                bucket_test(range, true, seed);
+            }
+            System.out.println("bucket queue tested: range "+range);
+        }
+        blocking_test(4, 3, 100000);
+        int quantiles[][] = { {0, 1}, {1, 2}, {9, 10}, {99, 100}, {1, 1} };
+        for(int quantile[] : quantiles)
+        {
+            quantile_test(quantile[0], quantile[1], 0);
+            quantile_test(quantile[0], quantile[1], 1);
+            quantile_test(quantile[0], quantile[1], 101);
+        }
         return;
     }
 }
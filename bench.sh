@@ -0,0 +1,2 @@
+#!/bin/sh
+java -Xmx8g -cp hppc-0.6.0-SNAPSHOT.jar:gen/java/class:. HeapBenchmark "$@"
@@ -5,6 +5,13 @@ set -x
 
 java -cp /usr/share/java/velocity.jar:/usr/share/java/commons-collections3.jar:/usr/share/java/commons-lang.jar:hppc-templateprocessor-0.6.0-SNAPSHOT.jar com.carrotsearch.hppc.generator.TemplateProcessor hppc-core/src/main/templates gen/java/src
 rm -f gen/java/src/com/carrotsearch/hppc/ObjectHeap.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectParallelSelect.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectBHeap.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectBlockingHeap.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectRunningQuantile.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectSequenceHeap.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectHeapSnapshot.java
+rm -f gen/java/src/com/carrotsearch/hppc/ObjectSegmentedHeap.java
 mkdir -p gen/java/class
-(cd gen/java/src && find . -name "*.java" | xargs javac -cp ../../../hppc-0.6.0-SNAPSHOT.jar -g -d ../../../gen/java/class)
-javac -cp hppc-0.6.0-SNAPSHOT.jar:gen/java/class HeapTest.java
+(cd gen/java/src && find . ../../../hppc-core/src/main/java -name "*.java" | xargs javac -cp ../../../hppc-0.6.0-SNAPSHOT.jar -g -d ../../../gen/java/class)
+javac -cp hppc-0.6.0-SNAPSHOT.jar:gen/java/class HeapTest.java HeapBenchmark.java
@@ -0,0 +1,509 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * Sorts files of <code>long</code>s or <code>int</code>s which don't fit in memory, in
+ * ascending signed order.
+ *
+ * Runs are formed by replacement selection:  a heap of M elements, each tagged with the
+ * run it belongs to, repeatedly writes out its smallest element and replaces it with the
+ * next input element, tagged for the next run if it is smaller than the one just
+ * written.  On random input this gives runs of about 2M elements, and on nearly sorted
+ * input a single run.  The runs are then merged k-way with a heap of run heads, in
+ * several passes if there are more runs than the memory budget has read buffers for.
+ * Input that fits in the heap is sorted straight to the output.
+ *
+ * All I/O goes through {@link FileChannel}s in blocks of block_size bytes, using direct
+ * buffers, or memory-mapped regions for writing runs if mmap is set.  The regions start
+ * at one block and double up to 1G, so a run of S bytes needs O(log S) mappings rather
+ * than one per block; they are released by the garbage collector.  Runs are kept in one
+ * temporary file per merge pass, in temp_dir, and the sort fails with an IOException
+ * rather than use more than temp_budget bytes of it.
+ *
+ * Ints are widened to longs in memory, so M is the same for both.
+ */
+public class ExternalSorter
+{
+    /**
+     * Bytes of heap and buffers to use, roughly.  12 bytes per heap element.
+     */
+    public long memory_budget = 64L << 20;
+
+    /**
+     * Most bytes of temporary files to use at once.
+     */
+    public long temp_budget = Long.MAX_VALUE;
+
+    /**
+     * Where to put temporary files, or null for the default.
+     */
+    public File temp_dir = null;
+
+    /**
+     * Bytes per read or write when forming runs and writing output.
+     */
+    public int block_size = 1 << 20;
+
+    /**
+     * Bytes of read buffer for each run being merged.  With the memory budget, this sets
+     * how many runs are merged per pass.
+     */
+    public int merge_buffer = 1 << 16;
+
+    /**
+     * Write runs through memory-mapped regions of the temporary file, rather than direct
+     * buffers.
+     */
+    public boolean mmap = false;
+
+    /**
+     * Byte order of the input and output files.  Big-endian matches DataOutputStream.
+     */
+    public ByteOrder order = ByteOrder.BIG_ENDIAN;
+
+    /**
+     * The number of runs formed by the last sort.
+     */
+    public int runs;
+
+    /**
+     * The number of merge passes done by the last sort, not counting the final one.
+     */
+    public int merge_passes;
+
+    /**
+     * Sort a file of longs into another file.
+     */
+    public void sortLongs(File input, File output)
+        throws IOException
+    {
+        this._sort(input, output, 8);
+        return;
+    }
+
+    /**
+     * Sort a file of ints into another file.
+     */
+    public void sortInts(File input, File output)
+        throws IOException
+    {
+        this._sort(input, output, 4);
+        return;
+    }
+
+    private void _sort(File input, File output, int width)
+        throws IOException
+    {
+        this.runs = 0;
+        this.merge_passes = 0;
+        int block = Math.max(this.block_size & ~7, 8);
+        long heap_bytes = this.memory_budget - 2L * block;
+        int m = (int) Math.max(Math.min(heap_bytes / 12, Integer.MAX_VALUE - 8), 1024);
+
+        RandomAccessFile in_file = new RandomAccessFile(input, "r");
+        RandomAccessFile out_file = new RandomAccessFile(output, "rw");
+        File temp = null;
+        RandomAccessFile temp_file = null;
+        try
+        {
+            FileChannel in_ch = in_file.getChannel();
+            FileChannel out_ch = out_file.getChannel();
+            out_ch.truncate(0);
+            long size = in_ch.size();
+            if (size % width != 0)
+                throw new IOException("File size " + size + " of " + input + " is not a multiple of " + width + ".");
+
+            _Reader in = new _Reader(in_ch, 0, size, width, ByteBuffer.allocateDirect(block).order(this.order));
+
+            // fill the heap; if that takes all the input, it goes straight to the output
+            long [] keys = new long[(int) Math.min(m, size / width)];
+            int [] tags = new int[keys.length];
+            int n = 0;
+            while (n < keys.length && in.next())
+                keys[n++] = in.value;
+            for (int i=(n>>1)-1;i>=0;i--)
+                _down(tags, keys, n, i, 0, keys[i]);
+
+            _Writer w;
+            if (in.pos == size && !in.buffer.hasRemaining())
+            {
+                w = new _Writer(out_ch, 0, width, block, false, Long.MAX_VALUE, this.order);
+            }
+            else
+            {
+                temp = File.createTempFile("hppc-sort", ".runs", this.temp_dir);
+                temp_file = new RandomAccessFile(temp, "rw");
+                w = new _Writer(temp_file.getChannel(), 0, width, block, this.mmap, this.temp_budget, this.order);
+            }
+
+            // replacement selection; a run ends when the top of the heap is tagged for the next one
+            LongArrayList bounds = new LongArrayList();
+            if (n > 0)
+                bounds.add(0);
+            int current = 0;
+            while (n > 0)
+            {
+                int t = tags[0];
+                long k = keys[0];
+                if (t != current)
+                {
+                    bounds.add(w.position());
+                    current = t;
+                }
+                w.put(k);
+                if (in.next())
+                {
+                    long x = in.value;
+                    _down(tags, keys, n, 0, (x >= k) ? t : t+1, x);
+                }
+                else if (--n > 0)
+                {
+                    _down(tags, keys, n, 0, tags[n], keys[n]);
+                }
+            }
+            if (bounds.size() > 0)
+                bounds.add(w.position());
+            w.close();
+            this.runs = Math.max(bounds.size() - 1, 0);
+            keys = null;
+            tags = null;
+
+            if (temp == null)
+                return;
+            temp_file.getChannel().truncate(bounds.get(bounds.size()-1));
+
+            // merge passes until the runs fit in memory, then the final merge to the output
+            int fanout = (int) Math.max(Math.min(this.memory_budget / Math.max(this.merge_buffer, 8) - 1, Integer.MAX_VALUE), 2);
+            while (bounds.size() - 1 > fanout)
+            {
+                File next = File.createTempFile("hppc-sort", ".runs", this.temp_dir);
+                RandomAccessFile next_file = new RandomAccessFile(next, "rw");
+                LongArrayList next_bounds = new LongArrayList();
+                try
+                {
+                    long used = bounds.get(bounds.size()-1);
+                    _Writer nw = new _Writer(next_file.getChannel(), 0, width, block, this.mmap,
+                        this.temp_budget - used, this.order);
+                    next_bounds.add(0);
+                    for (int r=0;r<bounds.size()-1;r+=fanout)
+                    {
+                        this._merge(temp_file.getChannel(), bounds, r, Math.min(r+fanout, bounds.size()-1), width, nw);
+                        next_bounds.add(nw.position());
+                    }
+                    nw.close();
+                    next_file.getChannel().truncate(nw.position());
+                }
+                catch (IOException e)
+                {
+                    next_file.close();
+                    next.delete();
+                    throw e;
+                }
+                temp_file.close();
+                temp.delete();
+                temp = next;
+                temp_file = next_file;
+                bounds = next_bounds;
+                this.merge_passes++;
+            }
+            _Writer ow = new _Writer(out_ch, 0, width, block, false, Long.MAX_VALUE, this.order);
+            this._merge(temp_file.getChannel(), bounds, 0, bounds.size()-1, width, ow);
+            ow.close();
+        }
+        finally
+        {
+            in_file.close();
+            out_file.close();
+            if (temp_file != null)
+                temp_file.close();
+            if (temp != null)
+                temp.delete();
+        }
+        return;
+    }
+
+    /**
+     * Merge runs [from, to) of ch, delimited by bounds, into w.
+     */
+    private void _merge(FileChannel ch, LongArrayList bounds, int from, int to, int width, _Writer w)
+        throws IOException
+    {
+        int k = to - from;
+        int per_run = (int) Math.max(Math.min(this.memory_budget / (k+1), this.block_size), this.merge_buffer) & ~7;
+        _Reader [] readers = new _Reader[k];
+        long [] heads = new long[k];
+        int [] heap = new int[k];
+        int n = 0;
+        for (int r=0;r<k;r++)
+        {
+            readers[r] = new _Reader(ch, bounds.get(from+r), bounds.get(from+r+1), width,
+                ByteBuffer.allocateDirect(Math.max(per_run, 8)).order(this.order));
+            if (readers[r].next())
+            {
+                heads[n] = readers[r].value;
+                heap[n++] = r;
+            }
+        }
+        for (int i=(n>>1)-1;i>=0;i--)
+            _siftRun(heap, heads, n, i, heap[i], heads[i]);
+
+        // the heap of runs is ordered by head only; heap[] holds the run indexes
+        while (n > 0)
+        {
+            int r = heap[0];
+            w.put(heads[0]);
+            _Reader rd = readers[r];
+            if (rd.next())
+            {
+                _siftRun(heap, heads, n, 0, r, rd.value);
+            }
+            else if (--n > 0)
+            {
+                _siftRun(heap, heads, n, 0, heap[n], heads[n]);
+            }
+        }
+        return;
+    }
+
+    /**
+     * Sift (tag, key) down the heap of n (tag, key) pairs from the hole at i.
+     */
+    static void _down(int [] tags, long [] keys, int n, int i, int tag, long key)
+    {
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            int t_c = tags[c];
+            long k_c = keys[c];
+            if (c+1 < n)
+            {
+                int t_d = tags[c+1];
+                long k_d = keys[c+1];
+                if (t_d < t_c || (t_d == t_c && k_d < k_c))
+                {
+                    t_c = t_d;
+                    k_c = k_d;
+                    c++;
+                }
+            }
+            if (tag < t_c || (tag == t_c && key <= k_c))
+                break;
+            tags[i] = t_c;
+            keys[i] = k_c;
+            i = c;
+        }
+        tags[i] = tag;
+        keys[i] = key;
+        return;
+    }
+
+    /**
+     * Sift run r with head key down the heap of n runs from the hole at i.
+     */
+    static void _siftRun(int [] runs, long [] heads, int n, int i, int r, long key)
+    {
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            long k_c = heads[c];
+            if (c+1 < n && heads[c+1] < k_c)
+                k_c = heads[++c];
+            if (key <= k_c)
+                break;
+            heads[i] = k_c;
+            runs[i] = runs[c];
+            i = c;
+        }
+        heads[i] = key;
+        runs[i] = r;
+        return;
+    }
+
+    /**
+     * Reads keys from [pos, end) of a channel, a buffer at a time, with positional reads
+     * so several readers can share a channel.
+     */
+    static final class _Reader
+    {
+        final FileChannel channel;
+        final long end;
+        final int width;
+        final ByteBuffer buffer;
+        long pos;
+        long value;
+
+        _Reader(FileChannel channel, long pos, long end, int width, ByteBuffer buffer)
+        {
+            this.channel = channel;
+            this.pos = pos;
+            this.end = end;
+            this.width = width;
+            this.buffer = buffer;
+            this.buffer.limit(0);
+            return;
+        }
+
+        boolean next()
+            throws IOException
+        {
+            final ByteBuffer b = this.buffer;
+            if (b.remaining() < this.width && !this._fill())
+                return false;
+            this.value = (this.width == 8) ? b.getLong() : b.getInt();
+            return true;
+        }
+
+        private boolean _fill()
+            throws IOException
+        {
+            if (this.pos >= this.end)
+                return false;
+            final ByteBuffer b = this.buffer;
+            b.clear();
+            int want = (int) Math.min(b.capacity() - b.capacity() % this.width, this.end - this.pos);
+            b.limit(want);
+            while (b.hasRemaining())
+            {
+                if (this.channel.read(b, this.pos + b.position()) < 0)
+                    throw new IOException("Unexpected end of file.");
+            }
+            this.pos += want;
+            b.flip();
+            return true;
+        }
+    }
+
+    /**
+     * Writes keys to a channel from a position, through a direct buffer a block at a time,
+     * or through memory-mapped regions of doubling size.  Nothing is written or mapped
+     * past limit.
+     */
+    static final class _Writer
+    {
+        /**
+         * The largest memory-mapped region.
+         */
+        final static int MAX_WINDOW = 1 << 30;
+
+        final FileChannel channel;
+        final int width;
+        final boolean mapped;
+        final long limit;
+        final ByteOrder order;
+        ByteBuffer buffer;
+
+        /**
+         * Size of the next memory-mapped region.
+         */
+        long window;
+
+        /**
+         * Position in the channel of the start of buffer.
+         */
+        long base;
+
+        _Writer(FileChannel channel, long pos, int width, int block, boolean mapped, long limit, ByteOrder order)
+        {
+            this.channel = channel;
+            this.width = width;
+            this.mapped = mapped;
+            this.limit = limit;
+            this.order = order;
+            this.base = pos;
+            this.window = block;
+            if (!mapped)
+                this.buffer = ByteBuffer.allocateDirect(block).order(order);
+            return;
+        }
+
+        /**
+         * Position in the channel of the next key.
+         */
+        long position()
+        {
+            return this.base + ((this.buffer == null) ? 0 : this.buffer.position());
+        }
+
+        void put(long v)
+            throws IOException
+        {
+            if (this.buffer == null || !this.buffer.hasRemaining())
+                this._next();
+            if (this.width == 8)
+                this.buffer.putLong(v);
+            else
+                this.buffer.putInt((int) v);
+            return;
+        }
+
+        void close()
+            throws IOException
+        {
+            if (!this.mapped && this.buffer != null)
+                this._write();
+            return;
+        }
+
+        private void _next()
+            throws IOException
+        {
+            if (this.mapped)
+            {
+                long pos = this.position();
+                long size = Math.min(this.window, this.limit - pos);
+                size -= size % this.width;
+                if (size <= 0)
+                    throw this._overBudget();
+                this.buffer = this.channel.map(FileChannel.MapMode.READ_WRITE, pos, size).order(this.order);
+                this.base = pos;
+                this.window = Math.min(this.window << 1, MAX_WINDOW);
+            }
+            else
+            {
+                this._write();
+            }
+            return;
+        }
+
+        private void _write()
+            throws IOException
+        {
+            final ByteBuffer b = this.buffer;
+            if (this.base + b.position() > this.limit)
+                throw this._overBudget();
+            b.flip();
+            while (b.hasRemaining())
+                this.channel.write(b, this.base + b.position());
+            this.base += b.limit();
+            b.clear();
+            return;
+        }
+
+        private IOException _overBudget()
+        {
+            return new IOException("Sort needs more than the temporary space budget of " + this.limit + " bytes.");
+        }
+    }
+}
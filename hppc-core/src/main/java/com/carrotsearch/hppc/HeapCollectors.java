@@ -0,0 +1,263 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+import java.util.function.ToIntFunction;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collector;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * Top-K selection and heap building for <code>java.util.stream</code> pipelines.
+ *
+ * The JDK has no <code>Collector</code> for primitive streams, so the primitive variants
+ * take the stream and run its three-argument <code>collect()</code>.  Every variant has a
+ * combiner which merges bounded heaps, so parallel streams accumulate independently
+ * per split.  Nothing is boxed.
+ */
+public final class HeapCollectors
+{
+    private HeapCollectors()
+    {
+        return;
+    }
+
+    /**
+     * Return the k largest elements of the stream, largest first.
+     */
+    public static int [] topK(IntStream stream, final int k)
+    {
+        IntHeap h = stream.collect(
+            () -> new IntHeap(k),
+            (a, e) -> IntParallelSelect._offer(a, e, k),
+            (a, b) -> { for (int i=0;i<b._size;i++) IntParallelSelect._offer(a, b.heap[i], k); });
+        int [] result = new int[h._size];
+        for (int i=result.length-1;i>=0;i--)
+            result[i] = h.pop();
+        return result;
+    }
+
+    /**
+     * Return the k largest elements of the stream, largest first.
+     */
+    public static long [] topK(LongStream stream, final int k)
+    {
+        LongHeap h = stream.collect(
+            () -> new LongHeap(k),
+            (a, e) -> LongParallelSelect._offer(a, e, k),
+            (a, b) -> { for (int i=0;i<b._size;i++) LongParallelSelect._offer(a, b.heap[i], k); });
+        long [] result = new long[h._size];
+        for (int i=result.length-1;i>=0;i--)
+            result[i] = h.pop();
+        return result;
+    }
+
+    /**
+     * Return the k largest elements of the stream, largest first.
+     */
+    public static double [] topK(DoubleStream stream, final int k)
+    {
+        DoubleHeap h = stream.collect(
+            () -> new DoubleHeap(k),
+            (a, e) -> DoubleParallelSelect._offer(a, e, k),
+            (a, b) -> { for (int i=0;i<b._size;i++) DoubleParallelSelect._offer(a, b.heap[i], k); });
+        double [] result = new double[h._size];
+        for (int i=result.length-1;i>=0;i--)
+            result[i] = h.pop();
+        return result;
+    }
+
+    /**
+     * Collect every element of the stream into a new heap.
+     */
+    public static IntHeap toHeap(IntStream stream)
+    {
+        return stream.collect(
+            IntHeap::new,
+            IntHeap::add,
+            (a, b) -> { for (int i=0;i<b._size;i++) a.add(b.heap[i]); });
+    }
+
+    /**
+     * Collect every element of the stream into a new heap.
+     */
+    public static LongHeap toHeap(LongStream stream)
+    {
+        return stream.collect(
+            LongHeap::new,
+            LongHeap::add,
+            (a, b) -> { for (int i=0;i<b._size;i++) a.add(b.heap[i]); });
+    }
+
+    /**
+     * Collect every element of the stream into a new heap.
+     */
+    public static DoubleHeap toHeap(DoubleStream stream)
+    {
+        return stream.collect(
+            DoubleHeap::new,
+            DoubleHeap::add,
+            (a, b) -> { for (int i=0;i<b._size;i++) a.add(b.heap[i]); });
+    }
+
+    /**
+     * A collector returning the k objects with the largest <code>int</code> keys, largest first.
+     */
+    public static <T> Collector<T, ?, List<T>> topKByInt(final int k, final ToIntFunction<? super T> key)
+    {
+        return Collector.of(
+            () -> new _KeyedTopK<T>(k),
+            (a, e) -> a.offer(key.applyAsInt(e), e),
+            _KeyedTopK::merge,
+            _KeyedTopK::toList,
+            Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * A collector returning the k objects with the largest <code>long</code> keys, largest first.
+     */
+    public static <T> Collector<T, ?, List<T>> topKByLong(final int k, final ToLongFunction<? super T> key)
+    {
+        return Collector.of(
+            () -> new _KeyedTopK<T>(k),
+            (a, e) -> a.offer(key.applyAsLong(e), e),
+            _KeyedTopK::merge,
+            _KeyedTopK::toList,
+            Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * A collector returning the k objects with the largest <code>double</code> keys, largest first.
+     */
+    public static <T> Collector<T, ?, List<T>> topKByDouble(final int k, final ToDoubleFunction<? super T> key)
+    {
+        return Collector.of(
+            () -> new _KeyedTopK<T>(k),
+            (a, e) -> a.offer(_sortableBits(key.applyAsDouble(e)), e),
+            _KeyedTopK::merge,
+            _KeyedTopK::toList,
+            Collector.Characteristics.UNORDERED);
+    }
+
+    /**
+     * Map a double onto a long with the same ordering (negative zero before positive zero).
+     */
+    static long _sortableBits(double d)
+    {
+        long bits = Double.doubleToLongBits(d);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    /**
+     * A min-heap of at most k (key, object) pairs, holding the pairs with the largest keys seen.
+     * Keys and objects are kept in parallel arrays.
+     */
+    static final class _KeyedTopK<T>
+    {
+        final int k;
+        final long [] keys;
+        final Object [] values;
+        int _size;
+
+        _KeyedTopK(int k)
+        {
+            this.k = Math.max(k, 0);
+            this.keys = new long[this.k];
+            this.values = new Object[this.k];
+            return;
+        }
+
+        void offer(long key, Object value)
+        {
+            int n = this._size;
+            if (n < this.k)
+            {
+                // sift up from the bottom
+                while (n > 0)
+                {
+                    int p = (n-1) >> 1;
+                    if (this.keys[p] <= key)
+                        break;
+                    this.keys[n] = this.keys[p];
+                    this.values[n] = this.values[p];
+                    n = p;
+                }
+                this.keys[n] = key;
+                this.values[n] = value;
+                this._size++;
+                return;
+            }
+            if (n == 0 || key <= this.keys[0])
+                return;
+            this._replaceTop(key, value);
+            return;
+        }
+
+        void _replaceTop(long key, Object value)
+        {
+            int n = this._size;
+            int p = 0, c;
+            while ((c = p+p+1) < n)
+            {
+                if (c+1 < n && this.keys[c+1] < this.keys[c])
+                    c++;
+                if (key <= this.keys[c])
+                    break;
+                this.keys[p] = this.keys[c];
+                this.values[p] = this.values[c];
+                p = c;
+            }
+            this.keys[p] = key;
+            this.values[p] = value;
+            return;
+        }
+
+        _KeyedTopK<T> merge(_KeyedTopK<T> other)
+        {
+            for (int i=0;i<other._size;i++)
+                this.offer(other.keys[i], other.values[i]);
+            return this;
+        }
+
+        @SuppressWarnings("unchecked")
+        List<T> toList()
+        {
+            // pop the heap from the smallest key up, filling the result from the back
+            int n = this._size;
+            Object [] sorted = new Object[n];
+            while (this._size > 0)
+            {
+                int last = --this._size;
+                sorted[last] = this.values[0];
+                long key = this.keys[last];
+                Object value = this.values[last];
+                this.values[last] = null;
+                if (last > 0)
+                    this._replaceTop(key, value);
+            }
+            List<T> result = new ArrayList<T>(n);
+            for (int i=0;i<n;i++)
+                result.add((T) sorted[i]);
+            return result;
+        }
+    }
+}
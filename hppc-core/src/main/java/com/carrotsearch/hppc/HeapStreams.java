@@ -0,0 +1,79 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.DoubleStream;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Spliterators and streams over the elements of primitive heaps, in unsorted order.
+ *
+ * The spliterators cover heap[0.._size) directly and are SIZED and SUBSIZED, splitting
+ * in halves, so parallel streams divide the work evenly without copying or boxing.
+ * They capture the array and size when created; the heap must not be modified until
+ * traversal is done.
+ */
+public final class HeapStreams
+{
+    private HeapStreams()
+    {
+        return;
+    }
+
+    public static Spliterator.OfInt spliterator(IntHeap h)
+    {
+        return Spliterators.spliterator(h.heap, 0, h._size, 0);
+    }
+
+    public static Spliterator.OfLong spliterator(LongHeap h)
+    {
+        return Spliterators.spliterator(h.heap, 0, h._size, 0);
+    }
+
+    public static Spliterator.OfDouble spliterator(DoubleHeap h)
+    {
+        return Spliterators.spliterator(h.heap, 0, h._size, 0);
+    }
+
+    /**
+     * A sequential stream of the elements; call parallel() on it to split the work.
+     */
+    public static IntStream intStream(IntHeap h)
+    {
+        return StreamSupport.intStream(spliterator(h), false);
+    }
+
+    /**
+     * A sequential stream of the elements; call parallel() on it to split the work.
+     */
+    public static LongStream longStream(LongHeap h)
+    {
+        return StreamSupport.longStream(spliterator(h), false);
+    }
+
+    /**
+     * A sequential stream of the elements; call parallel() on it to split the work.
+     */
+    public static DoubleStream doubleStream(DoubleHeap h)
+    {
+        return StreamSupport.doubleStream(spliterator(h), false);
+    }
+}
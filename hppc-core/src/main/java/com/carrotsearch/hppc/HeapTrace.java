@@ -0,0 +1,300 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+
+/**
+ * Records the operations on an int, long or double heap to a compact binary trace, and
+ * reads traces back for replay.
+ *
+ * Set an instance as the tracer of an {@link IntHeap}, {@link LongHeap} or
+ * {@link DoubleHeap}.  The heaps call it at the start of add(), pop(), push_pop(),
+ * pop_push() and clear() when a tracer is set, so a heap without one only pays for a null
+ * check.  The tracer interface is generated for every key type, but this class only
+ * implements {@link IntHeapTracer}, {@link LongHeapTracer} and {@link DoubleHeapTracer}:
+ * to trace a heap of another type, set a small tracer which widens its keys to one of
+ * these (bytes, shorts and chars to int, floats to double).
+ *
+ * An indirect heap traces the element indices it is given, and orders them by its
+ * comparator, which isn't recorded.  Record its trace with the {@link #INDEX} key type:
+ * it reads back like an int trace, but can't be replayed, since replay orders keys
+ * naturally.  A trace of an indirect heap whose comparator is the natural order of its
+ * indices may be recorded as {@link #INT}.
+ *
+ * The file starts with an 8-byte magic number and a byte for the key type ('I', 'L',
+ * 'D' or 'X').  Each operation is then a byte op code, followed for operations with an argument
+ * by the key as a zigzag varint of its long value (the raw bits for doubles).  Small
+ * priorities take one or two bytes.  Records are buffered and written in 64K blocks.
+ *
+ * A trace is single-threaded, like the heaps.
+ */
+public final class HeapTrace
+    implements IntHeapTracer, LongHeapTracer, DoubleHeapTracer, Closeable
+{
+    public final static int ADD = 1;
+    public final static int POP = 2;
+    public final static int PUSH_POP = 3;
+    public final static int POP_PUSH = 4;
+    public final static int CLEAR = 5;
+
+    public final static byte INT = 'I';
+    public final static byte LONG = 'L';
+    public final static byte DOUBLE = 'D';
+
+    /**
+     * Int element indices of an indirect heap, in the order of a comparator which the
+     * trace doesn't hold.
+     */
+    public final static byte INDEX = 'X';
+
+    /**
+     * "HPPCTRC1".
+     */
+    final static long MAGIC = 0x4850504354524331L;
+
+    private final OutputStream out;
+    private final byte [] buffer = new byte[1 << 16];
+    private int pos;
+
+    /**
+     * The key type of this trace.
+     */
+    public final byte type;
+
+    /**
+     * The number of operations recorded.
+     */
+    public long count;
+
+    /**
+     * Record to the given stream, which is closed by close().
+     */
+    public HeapTrace(OutputStream out, byte type)
+    {
+        if (!_knownType(type))
+            throw new IllegalArgumentException("Unknown key type: " + type);
+        this.out = out;
+        this.type = type;
+        for (int i=56;i>=0;i-=8)
+            this.buffer[this.pos++] = (byte) (MAGIC >>> i);
+        this.buffer[this.pos++] = type;
+        return;
+    }
+
+    /**
+     * Record to a new file.
+     */
+    public static HeapTrace create(File file, byte type)
+        throws IOException
+    {
+        return new HeapTrace(new FileOutputStream(file), type);
+    }
+
+    public void trace(int op)
+    {
+        if (this.pos > this.buffer.length - 1)
+            this._flush();
+        this.buffer[this.pos++] = (byte) op;
+        this.count++;
+        return;
+    }
+
+    public void trace(int op, int key)
+    {
+        this.trace(op, (long) key);
+        return;
+    }
+
+    public void trace(int op, double key)
+    {
+        this.trace(op, Double.doubleToRawLongBits(key));
+        return;
+    }
+
+    public void trace(int op, long key)
+    {
+        // an op code and at most 10 bytes of varint
+        if (this.pos > this.buffer.length - 11)
+            this._flush();
+        final byte [] b = this.buffer;
+        int p = this.pos;
+        b[p++] = (byte) op;
+        long v = (key << 1) ^ (key >> 63);
+        while ((v & ~0x7FL) != 0)
+        {
+            b[p++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        b[p++] = (byte) v;
+        this.pos = p;
+        this.count++;
+        return;
+    }
+
+    /**
+     * Write out the buffered records.
+     */
+    public void flush()
+    {
+        this._flush();
+        try
+        {
+            this.out.flush();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return;
+    }
+
+    @Override
+    public void close()
+        throws IOException
+    {
+        this._flush();
+        this.out.close();
+        return;
+    }
+
+    private void _flush()
+    {
+        try
+        {
+            this.out.write(this.buffer, 0, this.pos);
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        this.pos = 0;
+        return;
+    }
+
+    /**
+     * A trace read into memory.  Keys are mapped onto longs with the same ordering, so any
+     * trace can be replayed on long heaps:  ints are widened, and doubles mapped as by
+     * {@link #sortableBits}.  keys[i] is 0 for operations without an argument.  For
+     * an {@link #INDEX} trace the keys are the indices, and their order isn't the heap's.
+     */
+    public static final class Trace
+    {
+        public final byte type;
+        public final int size;
+        public final byte [] ops;
+        public final long [] keys;
+
+        Trace(byte type, int size, byte [] ops, long [] keys)
+        {
+            this.type = type;
+            this.size = size;
+            this.ops = ops;
+            this.keys = keys;
+            return;
+        }
+    }
+
+    /**
+     * Read a whole trace file.
+     */
+    public static Trace read(File file)
+        throws IOException
+    {
+        InputStream in = new FileInputStream(file);
+        try
+        {
+            return read(in);
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+
+    /**
+     * Read a whole trace from a stream, which is left open.
+     */
+    public static Trace read(InputStream stream)
+        throws IOException
+    {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(stream, 1 << 16));
+        if (in.readLong() != MAGIC)
+            throw new IOException("Not a heap trace.");
+        byte type = in.readByte();
+        if (!_knownType(type))
+            throw new IOException("Unknown key type: " + type);
+
+        byte [] ops = new byte[1024];
+        long [] keys = new long[1024];
+        int n = 0;
+        int op;
+        while ((op = in.read()) >= 0)
+        {
+            if (n == ops.length)
+            {
+                ops = java.util.Arrays.copyOf(ops, n << 1);
+                keys = java.util.Arrays.copyOf(keys, n << 1);
+            }
+            ops[n] = (byte) op;
+            if (op == ADD || op == PUSH_POP || op == POP_PUSH)
+            {
+                long v = 0;
+                for (int shift=0;;shift+=7)
+                {
+                    int b = in.read();
+                    if (b < 0)
+                        throw new EOFException("Truncated heap trace.");
+                    v |= (long) (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0)
+                        break;
+                }
+                long key = (v >>> 1) ^ -(v & 1);
+                keys[n] = (type == DOUBLE) ? sortableBits(Double.longBitsToDouble(key)) : key;
+            }
+            else if (op != POP && op != CLEAR)
+            {
+                throw new IOException("Unknown op code " + op + " at operation " + n + ".");
+            }
+            n++;
+        }
+        return new Trace(type, n, ops, keys);
+    }
+
+    private static boolean _knownType(byte type)
+    {
+        return type == INT || type == LONG || type == DOUBLE || type == INDEX;
+    }
+
+    /**
+     * Map a double onto a long with the same ordering (negative zero before positive zero).
+     */
+    public static long sortableBits(double d)
+    {
+        return HeapCollectors._sortableBits(d);
+    }
+}
@@ -0,0 +1,365 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+/**
+ * A min-priority queue of <code>int</code> priorities in a fixed range [0, range).
+ *
+ * Instead of a heap, there is one bucket per priority, so add() is O(1).  A bitmap
+ * with one bit per non-empty bucket, and a summary bitmap with one bit per non-zero
+ * word of it, find the lowest non-empty bucket with two Long.numberOfTrailingZeros()
+ * calls for ranges up to 4096, plus a scan of range/4096 summary words beyond that.
+ *
+ * Elements can carry an <code>int</code> payload.  Payloads are kept in one array per
+ * bucket, used as a FIFO queue, so elements of equal priority come out in the order
+ * they were added.  Bucket arrays grow as needed and are kept when the bucket empties,
+ * so a queue in steady state doesn't allocate.  Without payloads only a count is kept
+ * per bucket.
+ */
+public class IntBucketQueue
+{
+    /**
+     * Largest supported range.
+     */
+    public final static int MAX_RANGE = 1 << 24;
+
+    /**
+     * Initial length of a bucket's payload array.
+     */
+    public final static int BUCKET_CAPACITY = HashContainerUtils.MIN_CAPACITY;
+
+    /**
+     * Priorities are in [0, range).
+     */
+    public final int range;
+
+    /**
+     * True if elements carry payloads.
+     */
+    public final boolean payloads;
+
+    /**
+     * Payloads of each bucket, at bucket_head[p] until bucket_end[p].  Null until a bucket
+     * is first used, and always null without payloads.
+     */
+    public int [][] bucket_data;
+
+    public int [] bucket_head;
+
+    /**
+     * End of each bucket's payloads, or its element count without payloads.
+     */
+    public int [] bucket_end;
+
+    /**
+     * One bit per non-empty bucket.
+     */
+    public long [] bits;
+
+    /**
+     * One bit per non-zero word of bits.
+     */
+    public long [] summary;
+
+    /**
+     * The number of elements in all buckets.
+     */
+    public int _size;
+
+    /**
+     * The lowest non-empty priority, or range if the queue is empty.
+     */
+    public int _min;
+
+    /**
+     * Create a queue of priorities in [0, range), without payloads.
+     */
+    public IntBucketQueue(int range)
+    {
+        this(range, false);
+        return;
+    }
+
+    /**
+     * Create a queue of priorities in [0, range), with payloads if asked.
+     */
+    public IntBucketQueue(int range, boolean payloads)
+    {
+        if (range <= 0 || range > MAX_RANGE)
+            throw new IllegalArgumentException("Range must be between 1 and " + MAX_RANGE + ": " + range);
+
+        this.range = range;
+        this.payloads = payloads;
+        this.bucket_end = new int[range];
+        if (payloads)
+        {
+            this.bucket_data = new int[range][];
+            this.bucket_head = new int[range];
+        }
+        this.bits = new long[(range + 63) >>> 6];
+        this.summary = new long[(this.bits.length + 63) >>> 6];
+        this._min = range;
+        return;
+    }
+
+    /**
+     * Add an element with the given priority, and a payload of 0 if the queue has payloads.
+     */
+    public void add(int priority)
+    {
+        if (this.payloads)
+        {
+            this.add(priority, 0);
+            return;
+        }
+
+        assert priority >= 0 && priority < this.range;
+        if (this.bucket_end[priority]++ == 0)
+            this._mark(priority);
+        this._size++;
+        return;
+    }
+
+    /**
+     * Add an element with the given priority and payload.
+     */
+    public void add(int priority, int payload)
+    {
+        if (!this.payloads)
+            throw new IllegalStateException("This queue has no payloads.");
+        assert priority >= 0 && priority < this.range;
+
+        int end = this.bucket_end[priority];
+        int [] data = this.bucket_data[priority];
+        if (data == null || end == data.length)
+            data = this._grow(priority);
+        end = this.bucket_end[priority];
+        data[end] = payload;
+        this.bucket_end[priority] = end+1;
+        if (end == this.bucket_head[priority])
+            this._mark(priority);
+        this._size++;
+        return;
+    }
+
+    /**
+     * Return the lowest priority in the queue.
+     */
+    public int minPriority()
+    {
+        assert this._size > 0;
+        return this._min;
+    }
+
+    /**
+     * Return the payload of the element pop() would remove.
+     */
+    public int peekPayload()
+    {
+        assert this._size > 0 && this.payloads;
+        int p = this._min;
+        return this.bucket_data[p][this.bucket_head[p]];
+    }
+
+    /**
+     * Remove the oldest element of the lowest priority.
+     *
+     * @return Its priority.
+     */
+    public int pop()
+    {
+        int p = this._min;
+        if (this.payloads)
+            this._remove(p);
+        else
+            this._removeCount(p);
+        return p;
+    }
+
+    /**
+     * Remove the oldest element of the lowest priority.
+     *
+     * @return Its payload.
+     */
+    public int popPayload()
+    {
+        if (!this.payloads)
+            throw new IllegalStateException("This queue has no payloads.");
+        int p = this._min;
+        int result = this.bucket_data[p][this.bucket_head[p]];
+        this._remove(p);
+        return result;
+    }
+
+    /**
+     * Return the number of elements with the given priority.
+     */
+    public int bucketSize(int priority)
+    {
+        return this.payloads
+            ? this.bucket_end[priority] - this.bucket_head[priority]
+            : this.bucket_end[priority];
+    }
+
+    /**
+     * Remove every element of the lowest priority, copying their payloads to dst (oldest
+     * first) if the queue has payloads.  dst may be null without payloads.
+     *
+     * @return The number of elements removed; see minPriority() for their priority.
+     * @throws IllegalArgumentException If the bucket doesn't fit in dst.
+     */
+    public int drainMin(int [] dst)
+    {
+        assert this._size > 0;
+        int p = this._min;
+        int n = this.bucketSize(p);
+        if (this.payloads)
+        {
+            if (dst == null || dst.length < n)
+                throw new IllegalArgumentException("Bucket of " + n + " elements doesn't fit in dst.");
+            System.arraycopy(this.bucket_data[p], this.bucket_head[p], dst, 0, n);
+            this.bucket_head[p] = 0;
+        }
+        this.bucket_end[p] = 0;
+        this._size -= n;
+        this._unmark(p);
+        return n;
+    }
+
+    public int size()
+    {
+        return this._size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    /**
+     * Remove all elements, keeping the bucket arrays for reuse.
+     */
+    public void clear()
+    {
+        java.util.Arrays.fill(this.bucket_end, 0);
+        if (this.payloads)
+            java.util.Arrays.fill(this.bucket_head, 0);
+        java.util.Arrays.fill(this.bits, 0L);
+        java.util.Arrays.fill(this.summary, 0L);
+        this._size = 0;
+        this._min = this.range;
+        return;
+    }
+
+    private void _remove(int p)
+    {
+        assert this._size > 0;
+        int head = this.bucket_head[p] + 1;
+        this._size--;
+        if (head == this.bucket_end[p])
+        {
+            this.bucket_head[p] = 0;
+            this.bucket_end[p] = 0;
+            this._unmark(p);
+        }
+        else
+        {
+            this.bucket_head[p] = head;
+        }
+        return;
+    }
+
+    private void _removeCount(int p)
+    {
+        assert this._size > 0;
+        this._size--;
+        if (--this.bucket_end[p] == 0)
+            this._unmark(p);
+        return;
+    }
+
+    /**
+     * Make room at the end of bucket p, sliding its elements to the front or doubling its
+     * array.
+     */
+    private int [] _grow(int p)
+    {
+        int [] data = this.bucket_data[p];
+        if (data == null)
+        {
+            data = new int[BUCKET_CAPACITY];
+        }
+        else
+        {
+            int head = this.bucket_head[p];
+            int n = this.bucket_end[p] - head;
+            int [] new_data = (head >= (data.length >>> 1)) ? data : new int[data.length << 1];
+            System.arraycopy(data, head, new_data, 0, n);
+            data = new_data;
+            this.bucket_head[p] = 0;
+            this.bucket_end[p] = n;
+        }
+        this.bucket_data[p] = data;
+        return data;
+    }
+
+    /**
+     * Set the bit of the newly non-empty bucket p.
+     */
+    private void _mark(int p)
+    {
+        int w = p >>> 6;
+        if (this.bits[w] == 0)
+            this.summary[w >>> 6] |= 1L << w;
+        this.bits[w] |= 1L << p;
+        if (p < this._min)
+            this._min = p;
+        return;
+    }
+
+    /**
+     * Clear the bit of the newly empty bucket p, and find the new minimum if it was p.
+     */
+    private void _unmark(int p)
+    {
+        int w = p >>> 6;
+        long word = (this.bits[w] &= ~(1L << p));
+        if (word == 0)
+            this.summary[w >>> 6] &= ~(1L << w);
+        if (p != this._min)
+            return;
+
+        // nothing below p is set, so start the search at p's summary word
+        if (word != 0)
+        {
+            this._min = (w << 6) + Long.numberOfTrailingZeros(word);
+            return;
+        }
+        final long [] s = this.summary;
+        for (int i=w>>>6;i<s.length;i++)
+        {
+            if (s[i] != 0)
+            {
+                int v = (i << 6) + Long.numberOfTrailingZeros(s[i]);
+                this._min = (v << 6) + Long.numberOfTrailingZeros(this.bits[v]);
+                return;
+            }
+        }
+        this._min = this.range;
+        return;
+    }
+}
@@ -0,0 +1,420 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import com.carrotsearch.hppc.procedures.LongObjectProcedure;
+
+/**
+ * A cache of objects keyed by <code>long</code>, which evicts the entries with the
+ * lowest score first.
+ *
+ * The score is up to the caller:  a use count for LFU (see getAndBump()), or an expiry
+ * time for TTL (see setScore() and evictBelow()).  Entries live in slots, which are
+ * parallel primitive arrays of key, value, score and heap position.  A
+ * {@link LongIntOpenHashMap} maps keys to slots, and a min-heap of slots ordered by
+ * score, with the scores copied next to the slots so sifting doesn't chase them, finds
+ * the next victim.  Changing a score sifts its slot from its recorded position, so
+ * bumps, refreshes and removals are O(log n).  Nothing is allocated per entry; slots are
+ * recycled through a free list.
+ *
+ * Not thread-safe.
+ */
+public class LongObjectEvictingCache<VType>
+{
+    /**
+     * Maps keys to slot + 1.
+     */
+    public final LongIntOpenHashMap map;
+
+    public long [] slot_keys;
+    public Object [] slot_values;
+    public long [] slot_scores;
+
+    /**
+     * Heap position of each slot in use.
+     */
+    public int [] slot_pos;
+
+    /**
+     * Unused slots, as a stack of free_count entries.
+     */
+    public int [] free;
+    public int free_count;
+
+    /**
+     * Slots in use, as a min-heap by score.
+     */
+    public int [] heap;
+
+    /**
+     * The score of each heap entry.
+     */
+    public long [] heap_scores;
+
+    /**
+     * The number of entries.
+     */
+    public int _size;
+
+    /**
+     * Create a cache with the default capacity.
+     */
+    public LongObjectEvictingCache()
+    {
+        this(HashContainerUtils.DEFAULT_CAPACITY);
+        return;
+    }
+
+    /**
+     * Create a cache with room for the given number of entries before growing.
+     */
+    public LongObjectEvictingCache(int initialCapacity)
+    {
+        initialCapacity = HashContainerUtils.roundCapacity(Math.max(initialCapacity, HashContainerUtils.MIN_CAPACITY));
+        this.map = new LongIntOpenHashMap(initialCapacity);
+        this.allocateSlots(initialCapacity);
+        return;
+    }
+
+    /**
+     * Insert or replace the entry for key, with the given score.
+     *
+     * @return The previous value, or null.
+     */
+    @SuppressWarnings("unchecked")
+    public VType put(long key, VType value, long score)
+    {
+        if (this.map.containsKey(key))
+        {
+            int slot = this.map.lget() - 1;
+            VType previous = (VType) this.slot_values[slot];
+            this.slot_values[slot] = value;
+            this._rescore(slot, score);
+            return previous;
+        }
+
+        if (this.free_count == 0)
+            this.allocateSlots(HashContainerUtils.nextCapacity(this.slot_keys.length));
+        int slot = this.free[--this.free_count];
+        this.map.put(key, slot+1);
+        this.slot_keys[slot] = key;
+        this.slot_values[slot] = value;
+        this.slot_scores[slot] = score;
+        this._up(this._size++, slot, score);
+        return null;
+    }
+
+    /**
+     * Return the value for key, or null.  The score is left alone.
+     */
+    @SuppressWarnings("unchecked")
+    public VType get(long key)
+    {
+        if (!this.map.containsKey(key))
+            return null;
+        return (VType) this.slot_values[this.map.lget() - 1];
+    }
+
+    /**
+     * Return the value for key, or null, adding one to its score.  For LFU eviction.
+     */
+    @SuppressWarnings("unchecked")
+    public VType getAndBump(long key)
+    {
+        if (!this.map.containsKey(key))
+            return null;
+        int slot = this.map.lget() - 1;
+        this._rescore(slot, this.slot_scores[slot] + 1);
+        return (VType) this.slot_values[slot];
+    }
+
+    public boolean containsKey(long key)
+    {
+        return this.map.containsKey(key);
+    }
+
+    /**
+     * Add delta to the score of key.
+     *
+     * @return False if there is no such entry.
+     */
+    public boolean bump(long key, long delta)
+    {
+        if (!this.map.containsKey(key))
+            return false;
+        int slot = this.map.lget() - 1;
+        this._rescore(slot, this.slot_scores[slot] + delta);
+        return true;
+    }
+
+    /**
+     * Set the score of key, e.g. to refresh its expiry time.
+     *
+     * @return False if there is no such entry.
+     */
+    public boolean setScore(long key, long score)
+    {
+        if (!this.map.containsKey(key))
+            return false;
+        this._rescore(this.map.lget() - 1, score);
+        return true;
+    }
+
+    /**
+     * Return the score of key, or defaultValue if there is no such entry.
+     */
+    public long score(long key, long defaultValue)
+    {
+        if (!this.map.containsKey(key))
+            return defaultValue;
+        return this.slot_scores[this.map.lget() - 1];
+    }
+
+    /**
+     * Remove the entry for key.
+     *
+     * @return Its value, or null.
+     */
+    public VType remove(long key)
+    {
+        if (!this.map.containsKey(key))
+            return null;
+        return this._remove(this.map.lget() - 1);
+    }
+
+    /**
+     * Return the key of the entry which would be evicted next.
+     */
+    public long peekKey()
+    {
+        assert this._size > 0;
+        return this.slot_keys[this.heap[0]];
+    }
+
+    /**
+     * Return the lowest score.
+     */
+    public long peekScore()
+    {
+        assert this._size > 0;
+        return this.heap_scores[0];
+    }
+
+    /**
+     * Evict the lowest-scored entries until at most sizeBudget are left.
+     *
+     * @return The number of entries evicted.
+     */
+    public int evictUntil(int sizeBudget)
+    {
+        return this.evictUntil(sizeBudget, null);
+    }
+
+    /**
+     * Evict the lowest-scored entries until at most sizeBudget are left, passing each one to
+     * evicted unless it is null.
+     *
+     * @return The number of entries evicted.
+     */
+    public int evictUntil(int sizeBudget, LongObjectProcedure<? super VType> evicted)
+    {
+        int count = 0;
+        while (this._size > Math.max(sizeBudget, 0))
+        {
+            long key = this.slot_keys[this.heap[0]];
+            VType value = this._remove(this.heap[0]);
+            if (evicted != null)
+                evicted.apply(key, value);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Evict every entry scored below the given score, e.g. all entries expiring before now.
+     * Each one is passed to evicted unless it is null.
+     *
+     * @return The number of entries evicted.
+     */
+    public int evictBelow(long score, LongObjectProcedure<? super VType> evicted)
+    {
+        int count = 0;
+        while (this._size > 0 && this.heap_scores[0] < score)
+        {
+            long key = this.slot_keys[this.heap[0]];
+            VType value = this._remove(this.heap[0]);
+            if (evicted != null)
+                evicted.apply(key, value);
+            count++;
+        }
+        return count;
+    }
+
+    public int size()
+    {
+        return this._size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    public void clear()
+    {
+        this.map.clear();
+        java.util.Arrays.fill(this.slot_values, null);
+        int n = this.slot_keys.length;
+        for (int i=0;i<n;i++)
+            this.free[i] = n-1-i;
+        this.free_count = n;
+        this._size = 0;
+        return;
+    }
+
+    /**
+     * Remove the entry in the given slot.
+     */
+    @SuppressWarnings("unchecked")
+    private VType _remove(int slot)
+    {
+        VType value = (VType) this.slot_values[slot];
+        this.map.remove(this.slot_keys[slot]);
+        this.slot_values[slot] = null;
+        this.free[this.free_count++] = slot;
+
+        // fill the hole with the last heap entry
+        int i = this.slot_pos[slot];
+        int last = --this._size;
+        if (i != last)
+        {
+            int s = this.heap[last];
+            long score = this.heap_scores[last];
+            if (i > 0 && score < this.heap_scores[(i-1) >> 1])
+                this._up(i, s, score);
+            else
+                this._down(i, s, score);
+        }
+        return value;
+    }
+
+    /**
+     * Change the score of the slot in use, sifting it the way the score moved.
+     */
+    private void _rescore(int slot, long score)
+    {
+        long old = this.slot_scores[slot];
+        this.slot_scores[slot] = score;
+        if (score < old)
+            this._up(this.slot_pos[slot], slot, score);
+        else if (score > old)
+            this._down(this.slot_pos[slot], slot, score);
+        return;
+    }
+
+    /**
+     * Sift slot, with the given score, up the heap from the hole at i.
+     */
+    private void _up(int i, int slot, long score)
+    {
+        final int [] h = this.heap;
+        final long [] hs = this.heap_scores;
+        final int [] pos = this.slot_pos;
+        while (i > 0)
+        {
+            int p = (i-1) >> 1;
+            long s_p = hs[p];
+            if (s_p <= score)
+                break;
+            hs[i] = s_p;
+            h[i] = h[p];
+            pos[h[i]] = i;
+            i = p;
+        }
+        hs[i] = score;
+        h[i] = slot;
+        pos[slot] = i;
+        return;
+    }
+
+    /**
+     * Sift slot, with the given score, down the heap from the hole at i.
+     */
+    private void _down(int i, int slot, long score)
+    {
+        final int [] h = this.heap;
+        final long [] hs = this.heap_scores;
+        final int [] pos = this.slot_pos;
+        int n = this._size;
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            long s_c = hs[c];
+            if (c+1 < n && hs[c+1] < s_c)
+                s_c = hs[++c];
+            if (score <= s_c)
+                break;
+            hs[i] = s_c;
+            h[i] = h[c];
+            pos[h[i]] = i;
+            i = c;
+        }
+        hs[i] = score;
+        h[i] = slot;
+        pos[slot] = i;
+        return;
+    }
+
+    /**
+     * Resize the slot and heap arrays.  New slots go on the free list.
+     */
+    public void allocateSlots(int capacity)
+    {
+        int old = (this.slot_keys == null) ? 0 : this.slot_keys.length;
+        assert capacity >= old;
+
+        long [] new_keys = new long[capacity];
+        Object [] new_values = new Object[capacity];
+        long [] new_scores = new long[capacity];
+        int [] new_pos = new int[capacity];
+        int [] new_free = new int[capacity];
+        int [] new_heap = new int[capacity];
+        long [] new_heap_scores = new long[capacity];
+        if (old > 0)
+        {
+            System.arraycopy(this.slot_keys, 0, new_keys, 0, old);
+            System.arraycopy(this.slot_values, 0, new_values, 0, old);
+            System.arraycopy(this.slot_scores, 0, new_scores, 0, old);
+            System.arraycopy(this.slot_pos, 0, new_pos, 0, old);
+            System.arraycopy(this.free, 0, new_free, 0, this.free_count);
+            System.arraycopy(this.heap, 0, new_heap, 0, this._size);
+            System.arraycopy(this.heap_scores, 0, new_heap_scores, 0, this._size);
+        }
+        // hand out low slots first
+        for (int i=capacity-1;i>=old;i--)
+            new_free[this.free_count++] = i;
+
+        this.slot_keys = new_keys;
+        this.slot_values = new_values;
+        this.slot_scores = new_scores;
+        this.slot_pos = new_pos;
+        this.free = new_free;
+        this.heap = new_heap;
+        this.heap_scores = new_heap_scores;
+        return;
+    }
+}
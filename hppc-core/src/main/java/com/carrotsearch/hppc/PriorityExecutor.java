@@ -0,0 +1,566 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An executor which runs tasks in order of an int priority, smallest first.
+ *
+ * A ThreadPoolExecutor on a PriorityBlockingQueue needs a boxed, Comparable wrapper per
+ * task, and every submission and every take goes through the queue's one lock.  Here
+ * each worker has its own {@link LongHeap} and an array of task slots.  A task is stored
+ * in a free slot, and the heap holds <code>(priority &lt;&lt; 32) | slot</code>, so the
+ * heap is of primitives and the only per-task object is the Runnable itself.  Ties are
+ * broken by slot, not by submission order.
+ *
+ * Tasks submitted from a worker go to that worker's heap; others are dealt out to the
+ * workers round-robin, and {@link #submitAll} hands each worker a contiguous share of a
+ * batch under a single lock.  A worker whose heap is empty steals up to half of the heap
+ * of another worker, at most {@link #STEAL_BATCH} tasks, taken from the top, so the
+ * stolen tasks are the victim's most urgent.  The priority order is therefore per worker:
+ * a worker may run a task while a more urgent one waits on another worker's heap.  With
+ * one worker the order is exact.
+ *
+ * Workers are made by the given ThreadFactory.  On Java 21 and later,
+ * <code>Thread.ofVirtual().factory()</code> gives virtual-thread workers; locking uses
+ * ReentrantLock rather than synchronized, so a waiting virtual worker doesn't pin its
+ * carrier thread.  An exception thrown by a task goes to the worker's uncaught exception
+ * handler, and the worker carries on.
+ */
+public class PriorityExecutor
+    implements Executor
+{
+    /**
+     * Experimental!
+     */
+    public static boolean experimental_warning = true;
+
+    /**
+     * The most tasks a worker steals at once.
+     */
+    public final static int STEAL_BATCH = 32;
+
+    /**
+     * The priority used by execute().
+     */
+    public final static int DEFAULT_PRIORITY = 0;
+
+    final _Worker [] workers;
+
+    /**
+     * The number of accepted tasks which no worker has taken yet.  It is raised before
+     * the tasks are pushed, so it may briefly count tasks which aren't on a heap yet, but
+     * never misses one which is.
+     */
+    final AtomicLong pending = new AtomicLong();
+
+    /**
+     * Idle workers wait here for pending to become non-zero.
+     */
+    final ReentrantLock idle_lock = new ReentrantLock();
+    final Condition idle_cond = this.idle_lock.newCondition();
+    final AtomicInteger idle = new AtomicInteger();
+
+    final AtomicInteger next_worker = new AtomicInteger();
+    final CountDownLatch terminated;
+    volatile boolean shutdown;
+
+    /**
+     * The worker running on the current thread, if any.
+     */
+    final ThreadLocal<_Worker> current = new ThreadLocal<_Worker>();
+
+    /**
+     * Create an executor with one platform thread per available processor.
+     */
+    public PriorityExecutor()
+    {
+        this(Runtime.getRuntime().availableProcessors());
+        return;
+    }
+
+    /**
+     * Create an executor with the given number of platform-thread workers.
+     */
+    public PriorityExecutor(int workerCount)
+    {
+        this(workerCount, Executors.defaultThreadFactory());
+        return;
+    }
+
+    /**
+     * Create an executor with the given number of workers, made by threadFactory.
+     */
+    public PriorityExecutor(int workerCount, ThreadFactory threadFactory)
+    {
+        if (workerCount < 1)
+            throw new IllegalArgumentException("Worker count must be at least 1: " + workerCount);
+
+        if (experimental_warning)
+        {
+            System.err.println("hppc:  Heap classes are still considered experimental, use at own risk.  Set "+PriorityExecutor.class+".experimental_warning = false to suppress this message.");
+            experimental_warning = false;
+        }
+
+        this.workers = new _Worker[workerCount];
+        this.terminated = new CountDownLatch(workerCount);
+        for (int i=0;i<workerCount;i++)
+            this.workers[i] = new _Worker(this, i);
+        for (int i=0;i<workerCount;i++)
+        {
+            Thread t = threadFactory.newThread(this.workers[i]);
+            if (t == null)
+                throw new RejectedExecutionException("Thread factory made no thread.");
+            this.workers[i].thread = t;
+        }
+        for (int i=0;i<workerCount;i++)
+            this.workers[i].thread.start();
+        return;
+    }
+
+    /**
+     * Run the task with the default priority.
+     */
+    @Override
+    public void execute(Runnable task)
+    {
+        this.submit(DEFAULT_PRIORITY, task);
+        return;
+    }
+
+    /**
+     * Run the task with the given priority; smaller runs first.
+     */
+    public void submit(int priority, Runnable task)
+    {
+        if (task == null)
+            throw new NullPointerException();
+        this._accept(1);
+
+        _Worker w = this.current.get();
+        if (w == null || w.executor != this)
+            w = this.workers[(this.next_worker.getAndIncrement() & Integer.MAX_VALUE) % this.workers.length];
+        w.lock.lock();
+        try
+        {
+            w._push(priority, task);
+        }
+        finally
+        {
+            w.lock.unlock();
+        }
+        this._wake(1);
+        return;
+    }
+
+    /**
+     * Run tasks[offset .. offset+length) with the corresponding priorities.  From a worker
+     * the batch goes to that worker; otherwise it is split evenly over the workers.  Each
+     * share is added under one lock acquisition.
+     */
+    public void submitAll(int [] priorities, Runnable [] tasks, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || offset + length > tasks.length || offset + length > priorities.length)
+            throw new IndexOutOfBoundsException("Bad batch range: " + offset + ", " + length);
+        for (int i=offset;i<offset+length;i++)
+        {
+            if (tasks[i] == null)
+                throw new NullPointerException();
+        }
+        this._accept(length);
+        if (length == 0)
+            return;
+
+        _Worker w = this.current.get();
+        if (w != null && w.executor == this)
+        {
+            w.lock.lock();
+            try
+            {
+                for (int i=offset;i<offset+length;i++)
+                    w._push(priorities[i], tasks[i]);
+            }
+            finally
+            {
+                w.lock.unlock();
+            }
+        }
+        else
+        {
+            int n = this.workers.length;
+            int first = (this.next_worker.getAndAdd(n) & Integer.MAX_VALUE) % n;
+            int from = offset;
+            for (int k=0;k<n;k++)
+            {
+                int to = offset + (int) ((long) length * (k+1) / n);
+                if (to == from)
+                    continue;
+                _Worker v = this.workers[(first + k) % n];
+                v.lock.lock();
+                try
+                {
+                    for (int i=from;i<to;i++)
+                        v._push(priorities[i], tasks[i]);
+                }
+                finally
+                {
+                    v.lock.unlock();
+                }
+                from = to;
+            }
+        }
+        this._wake(length);
+        return;
+    }
+
+    /**
+     * Run all of tasks, with the corresponding priorities.
+     */
+    public void submitAll(int [] priorities, Runnable [] tasks)
+    {
+        this.submitAll(priorities, tasks, 0, tasks.length);
+        return;
+    }
+
+    /**
+     * Count count new tasks as pending, or reject them if the executor is shut down.
+     *
+     * pending is raised before shutdown is read, and an idle worker reads shutdown before
+     * pending, so a worker which sees the shutdown also sees every task accepted before
+     * it, and doesn't exit while one is still to be pushed.
+     */
+    private void _accept(int count)
+    {
+        this.pending.addAndGet(count);
+        if (this.shutdown)
+        {
+            this.pending.addAndGet(-count);
+            throw new RejectedExecutionException("Executor is shut down.");
+        }
+        return;
+    }
+
+    /**
+     * Wake idle workers for count tasks just pushed.
+     */
+    private void _wake(int count)
+    {
+        if (this.idle.get() > 0)
+        {
+            this.idle_lock.lock();
+            try
+            {
+                if (count == 1)
+                    this.idle_cond.signal();
+                else
+                    this.idle_cond.signalAll();
+            }
+            finally
+            {
+                this.idle_lock.unlock();
+            }
+        }
+        return;
+    }
+
+    /**
+     * The number of tasks waiting to run.
+     */
+    public long pending()
+    {
+        return this.pending.get();
+    }
+
+    /**
+     * The number of steals so far.  Approximate while the workers are running.
+     */
+    public long steals()
+    {
+        long sum = 0;
+        for (_Worker w : this.workers)
+            sum += w.steals;
+        return sum;
+    }
+
+    /**
+     * Stop accepting tasks.  The tasks already accepted still run:  a submit() which
+     * returns normally, even concurrently with this, has its task run before the workers
+     * exit.
+     */
+    public void shutdown()
+    {
+        this.shutdown = true;
+        this.idle_lock.lock();
+        try
+        {
+            this.idle_cond.signalAll();
+        }
+        finally
+        {
+            this.idle_lock.unlock();
+        }
+        return;
+    }
+
+    public boolean isShutdown()
+    {
+        return this.shutdown;
+    }
+
+    public boolean isTerminated()
+    {
+        return this.terminated.getCount() == 0;
+    }
+
+    /**
+     * Wait for the workers to finish after shutdown().
+     *
+     * @return False on timeout.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit)
+        throws InterruptedException
+    {
+        return this.terminated.await(timeout, unit);
+    }
+
+    /**
+     * A worker, with its heap of (priority, slot) keys and the slots.  Everything but
+     * steals is guarded by lock.
+     */
+    static final class _Worker
+        implements Runnable
+    {
+        final PriorityExecutor executor;
+        final int index;
+        final ReentrantLock lock = new ReentrantLock();
+        final LongHeap heap = new LongHeap();
+        Runnable [] tasks = new Runnable[HashContainerUtils.DEFAULT_CAPACITY];
+        int [] free = new int[HashContainerUtils.DEFAULT_CAPACITY];
+        int free_count;
+        int slots_used;
+        Thread thread;
+        volatile long steals;
+
+        _Worker(PriorityExecutor executor, int index)
+        {
+            this.executor = executor;
+            this.index = index;
+            return;
+        }
+
+        /**
+         * Queue a task.  Call with lock held.
+         */
+        void _push(int priority, Runnable task)
+        {
+            int slot;
+            if (this.free_count > 0)
+            {
+                slot = this.free[--this.free_count];
+            }
+            else
+            {
+                if (this.slots_used == this.tasks.length)
+                {
+                    int capacity = HashContainerUtils.nextCapacity(this.tasks.length);
+                    this.tasks = java.util.Arrays.copyOf(this.tasks, capacity);
+                    this.free = new int[capacity];
+                }
+                slot = this.slots_used++;
+            }
+            this.tasks[slot] = task;
+            this.heap.add(((long) priority << 32) | slot);
+            return;
+        }
+
+        /**
+         * Take the most urgent task, or null.  Call with lock held.
+         */
+        Runnable _pop()
+        {
+            if (this.heap._size == 0)
+                return null;
+            long key = this.heap.pop();
+            return this._take((int) key);
+        }
+
+        private Runnable _take(int slot)
+        {
+            Runnable task = this.tasks[slot];
+            this.tasks[slot] = null;
+            this.free[this.free_count++] = slot;
+            return task;
+        }
+
+        /**
+         * Move up to half of victim's tasks, from the top, to this worker, and return the
+         * most urgent of them.
+         */
+        Runnable _steal(_Worker victim)
+        {
+            if (victim.heap._size == 0 || !victim.lock.tryLock())
+                return null;
+            long [] keys;
+            Runnable [] stolen;
+            int n;
+            try
+            {
+                n = Math.min((victim.heap._size + 1) >>> 1, STEAL_BATCH);
+                if (n == 0)
+                    return null;
+                keys = new long[n];
+                stolen = new Runnable[n];
+                for (int i=0;i<n;i++)
+                {
+                    keys[i] = victim.heap.pop();
+                    stolen[i] = victim._take((int) keys[i]);
+                }
+            }
+            finally
+            {
+                victim.lock.unlock();
+            }
+
+            // the first is the most urgent; keep the rest
+            if (n > 1)
+            {
+                this.lock.lock();
+                try
+                {
+                    for (int i=1;i<n;i++)
+                        this._push((int) (keys[i] >> 32), stolen[i]);
+                }
+                finally
+                {
+                    this.lock.unlock();
+                }
+            }
+            this.steals++;
+            return stolen[0];
+        }
+
+        /**
+         * Find a task, locally or by stealing, waiting if there is none.
+         *
+         * @return Null once the executor is shut down and drained.
+         */
+        Runnable _next()
+            throws InterruptedException
+        {
+            final PriorityExecutor ex = this.executor;
+            final _Worker [] all = ex.workers;
+            while (true)
+            {
+                Runnable task;
+                this.lock.lock();
+                try
+                {
+                    task = this._pop();
+                }
+                finally
+                {
+                    this.lock.unlock();
+                }
+                if (task != null)
+                    return task;
+
+                for (int k=1;k<all.length && ex.pending.get() > 0;k++)
+                {
+                    task = this._steal(all[(this.index + k) % all.length]);
+                    if (task != null)
+                        return task;
+                }
+                if (ex.pending.get() > 0)
+                {
+                    // a victim was locked, or a task is just being pushed or taken
+                    Thread.yield();
+                    continue;
+                }
+
+                ex.idle_lock.lock();
+                try
+                {
+                    ex.idle.incrementAndGet();
+                    try
+                    {
+                        while (true)
+                        {
+                            // shutdown first:  see _accept()
+                            boolean stopping = ex.shutdown;
+                            if (ex.pending.get() > 0)
+                                break;
+                            if (stopping)
+                                return null;
+                            ex.idle_cond.await();
+                        }
+                    }
+                    finally
+                    {
+                        ex.idle.decrementAndGet();
+                    }
+                }
+                finally
+                {
+                    ex.idle_lock.unlock();
+                }
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            this.executor.current.set(this);
+            try
+            {
+                Runnable task;
+                while ((task = this._next()) != null)
+                {
+                    this.executor.pending.decrementAndGet();
+                    try
+                    {
+                        task.run();
+                    }
+                    catch (Throwable t)
+                    {
+                        Thread th = Thread.currentThread();
+                        th.getUncaughtExceptionHandler().uncaughtException(th, t);
+                    }
+                }
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+            }
+            finally
+            {
+                this.executor.current.remove();
+                this.executor.terminated.countDown();
+            }
+            return;
+        }
+    }
+}
@@ -0,0 +1,811 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.Arrays;
+
+/**
+ * Dijkstra's shortest paths over a directed graph in compressed sparse row form, with
+ * non-negative <code>long</code> or <code>float</code> edge weights.
+ *
+ * The edges of vertex u are targets[offsets[u] .. offsets[u+1]), with the weights at the
+ * same positions.  The arrays are used as given and must not change.  The reverse graph,
+ * for bidirectional search, is built once by the constructor.
+ *
+ * Each thread gets its own workspace on first use, holding the distance arrays and
+ * priority queues, so queries don't allocate (apart from queue growth while warming
+ * up) and any number of threads can query one instance.  Instead of clearing the
+ * distance arrays, each query bumps an epoch, and a vertex's distance is only valid when
+ * its stamp equals the epoch.
+ *
+ * Float distances are kept as their raw bits, which order like the floats for
+ * non-negative values, so both weight types share the search code and the queues only
+ * see long keys.  The queue is one of:
+ * <ul>
+ * <li>{@link #PACKED}:  a {@link LongHeap} of (distance &lt;&lt; 32 | vertex), with a new
+ * entry per improvement and stale entries skipped when popped.  Distances must be below
+ * 2^32.</li>
+ * <li>{@link #INDEXED}:  a binary heap of vertices with their positions, so an improvement
+ * is a decrease-key and nothing stale is queued.</li>
+ * <li>{@link #RADIX}:  a radix heap, which relies on Dijkstra popping non-decreasing keys,
+ * and moves each entry down O(log C) buckets in total.  Stale entries are skipped as for
+ * PACKED.</li>
+ * </ul>
+ * Every path a search builds must be shorter than {@link #UNREACHABLE} with long weights,
+ * and finite (at most Float.MAX_VALUE, rounded at each edge) with float weights.  These
+ * are the paths to a vertex the search reaches followed by one of its edges, and for
+ * distance() the paths joining the two sides.  It is enough that all the weights add up
+ * to less.  A search which builds a longer path throws an ArithmeticException, rather
+ * than wrapping negative or reading as unreachable.
+ * HeapBenchmark's shortest benchmark compares them.
+ */
+public class ShortestPaths
+{
+    public final static int PACKED = 0;
+    public final static int INDEXED = 1;
+    public final static int RADIX = 2;
+
+    /**
+     * The distance of unreachable vertices in long graphs.
+     */
+    public final static long UNREACHABLE = Long.MAX_VALUE;
+
+    public final int vertices;
+    public final int strategy;
+
+    final int [] offsets;
+    final int [] targets;
+    final long [] long_weights;
+    final float [] float_weights;
+
+    final int [] reverse_offsets;
+    final int [] reverse_targets;
+    final long [] reverse_long_weights;
+    final float [] reverse_float_weights;
+
+    /**
+     * The raw distance of unreachable vertices:  UNREACHABLE, or the bits of float infinity.
+     */
+    final long inf;
+
+    private final ThreadLocal<_Workspace> workspaces = new ThreadLocal<_Workspace>();
+
+    /**
+     * Create an engine for a graph with long weights, using a radix heap.
+     */
+    public ShortestPaths(int [] offsets, int [] targets, long [] weights)
+    {
+        this(offsets, targets, weights, RADIX);
+        return;
+    }
+
+    public ShortestPaths(int [] offsets, int [] targets, long [] weights, int strategy)
+    {
+        this(offsets, targets, weights, null, strategy);
+        return;
+    }
+
+    /**
+     * Create an engine for a graph with float weights, using a radix heap.
+     */
+    public ShortestPaths(int [] offsets, int [] targets, float [] weights)
+    {
+        this(offsets, targets, weights, RADIX);
+        return;
+    }
+
+    public ShortestPaths(int [] offsets, int [] targets, float [] weights, int strategy)
+    {
+        this(offsets, targets, null, weights, strategy);
+        return;
+    }
+
+    private ShortestPaths(int [] offsets, int [] targets, long [] long_weights, float [] float_weights, int strategy)
+    {
+        if (strategy != PACKED && strategy != INDEXED && strategy != RADIX)
+            throw new IllegalArgumentException("Unknown strategy: " + strategy);
+        int n = offsets.length - 1;
+        int m = targets.length;
+        if (n < 0 || offsets[0] != 0 || offsets[n] != m)
+            throw new IllegalArgumentException("Offsets must run from 0 to the number of edges.");
+        if ((long_weights != null ? long_weights.length : float_weights.length) != m)
+            throw new IllegalArgumentException("There must be a weight per edge.");
+        for (int u=0;u<n;u++)
+        {
+            if (offsets[u] > offsets[u+1])
+                throw new IllegalArgumentException("Offsets must not decrease, at vertex " + u + ".");
+        }
+        for (int e=0;e<m;e++)
+        {
+            if (targets[e] < 0 || targets[e] >= n)
+                throw new IllegalArgumentException("Edge " + e + " leads to no vertex: " + targets[e]);
+            if (long_weights != null ? long_weights[e] < 0 : !(float_weights[e] >= 0 && float_weights[e] < Float.POSITIVE_INFINITY))
+                throw new IllegalArgumentException("Edge " + e + " has a negative or non-finite weight.");
+        }
+
+        this.vertices = n;
+        this.strategy = strategy;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.long_weights = long_weights;
+        this.float_weights = float_weights;
+        this.inf = (long_weights != null) ? UNREACHABLE : Float.floatToRawIntBits(Float.POSITIVE_INFINITY);
+
+        // the reverse graph, by counting sort on the targets
+        int [] roff = new int[n+1];
+        for (int e=0;e<m;e++)
+            roff[targets[e]+1]++;
+        for (int v=0;v<n;v++)
+            roff[v+1] += roff[v];
+        int [] fill = Arrays.copyOf(roff, n);
+        int [] rtgt = new int[m];
+        long [] rlw = (long_weights != null) ? new long[m] : null;
+        float [] rfw = (float_weights != null) ? new float[m] : null;
+        for (int u=0;u<n;u++)
+        {
+            for (int e=offsets[u];e<offsets[u+1];e++)
+            {
+                int r = fill[targets[e]]++;
+                rtgt[r] = u;
+                if (rlw != null)
+                    rlw[r] = long_weights[e];
+                else
+                    rfw[r] = float_weights[e];
+            }
+        }
+        this.reverse_offsets = roff;
+        this.reverse_targets = rtgt;
+        this.reverse_long_weights = rlw;
+        this.reverse_float_weights = rfw;
+        return;
+    }
+
+    /**
+     * The length of a shortest path from source to target, or {@link #UNREACHABLE}, by
+     * bidirectional search.  For graphs with long weights.
+     */
+    public long distance(int source, int target)
+    {
+        this._checkLong();
+        return this._bidirectional(this._workspace(), source, target);
+    }
+
+    /**
+     * The length of a shortest path from source to target, or infinity, by bidirectional
+     * search.  For graphs with float weights.
+     */
+    public float floatDistance(int source, int target)
+    {
+        this._checkFloat();
+        return Float.intBitsToFloat((int) this._bidirectional(this._workspace(), source, target));
+    }
+
+    /**
+     * The distances from source to every vertex, or {@link #UNREACHABLE}, into out.  For
+     * graphs with long weights.
+     */
+    public void distancesFrom(int source, long [] out)
+    {
+        this._checkLong();
+        _Workspace ws = this._workspace();
+        this._forward(ws, source, false);
+        for (int v=0;v<this.vertices;v++)
+            out[v] = (ws.stamp_f[v] == ws.epoch) ? ws.dist_f[v] : UNREACHABLE;
+        return;
+    }
+
+    /**
+     * The distances from source to every vertex, or infinity, into out.  For graphs with
+     * float weights.
+     */
+    public void floatDistancesFrom(int source, float [] out)
+    {
+        this._checkFloat();
+        _Workspace ws = this._workspace();
+        this._forward(ws, source, false);
+        for (int v=0;v<this.vertices;v++)
+            out[v] = (ws.stamp_f[v] == ws.epoch) ? Float.intBitsToFloat((int) ws.dist_f[v]) : Float.POSITIVE_INFINITY;
+        return;
+    }
+
+    /**
+     * The distance from each source to each target, into out[i * targets.length + j].
+     * Each source gets one search, which stops once every target is settled.  For graphs
+     * with long weights.  To use several threads, split the sources between them.
+     */
+    public void distances(int [] sources, int [] targets, long [] out)
+    {
+        this._checkLong();
+        _Workspace ws = this._workspace();
+        int t = targets.length;
+        for (int i=0;i<sources.length;i++)
+        {
+            this._manyToMany(ws, sources[i], targets);
+            for (int j=0;j<t;j++)
+                out[i*t + j] = (ws.stamp_f[targets[j]] == ws.epoch) ? ws.dist_f[targets[j]] : UNREACHABLE;
+        }
+        return;
+    }
+
+    /**
+     * The distance from each source to each target, into out[i * targets.length + j].  For
+     * graphs with float weights.
+     */
+    public void floatDistances(int [] sources, int [] targets, float [] out)
+    {
+        this._checkFloat();
+        _Workspace ws = this._workspace();
+        int t = targets.length;
+        for (int i=0;i<sources.length;i++)
+        {
+            this._manyToMany(ws, sources[i], targets);
+            for (int j=0;j<t;j++)
+                out[i*t + j] = (ws.stamp_f[targets[j]] == ws.epoch) ? Float.intBitsToFloat((int) ws.dist_f[targets[j]]) : Float.POSITIVE_INFINITY;
+        }
+        return;
+    }
+
+    private void _checkLong()
+    {
+        if (this.long_weights == null)
+            throw new IllegalStateException("The graph has float weights.");
+        return;
+    }
+
+    private void _checkFloat()
+    {
+        if (this.float_weights == null)
+            throw new IllegalStateException("The graph has long weights.");
+        return;
+    }
+
+    private _Workspace _workspace()
+    {
+        _Workspace ws = this.workspaces.get();
+        if (ws == null)
+        {
+            ws = new _Workspace(this.vertices, this.strategy);
+            this.workspaces.set(ws);
+        }
+        return ws;
+    }
+
+    /**
+     * Raw distance d plus the weight of edge e.
+     */
+    private static long _add(long d, long [] lw, float [] fw, int e)
+    {
+        if (lw != null)
+            return _checked(d + lw[e]);
+        return _checked(Float.intBitsToFloat((int) d) + fw[e]);
+    }
+
+    /**
+     * The sum of two raw distances, the length of a path through their vertex.
+     */
+    private long _sum(long a, long b)
+    {
+        if (this.long_weights != null)
+            return _checked(a + b);
+        return _checked(Float.intBitsToFloat((int) a) + Float.intBitsToFloat((int) b));
+    }
+
+    /**
+     * Whether raw distances a + b &gt;= c, where c isn't the infinite distance.  For long
+     * distances this avoids the sum, which may overflow although neither is a path length.
+     */
+    private boolean _atLeast(long a, long b, long c)
+    {
+        if (this.long_weights != null)
+            return a >= c - b;
+        return Float.intBitsToFloat((int) a) + Float.intBitsToFloat((int) b) >= Float.intBitsToFloat((int) c);
+    }
+
+    /**
+     * A long path length, which must be below UNREACHABLE.  Both terms of the sum were
+     * non-negative, so an overflow is negative.
+     */
+    private static long _checked(long sum)
+    {
+        if (sum < 0 || sum == UNREACHABLE)
+            throw new ArithmeticException("Path length overflows long.");
+        return sum;
+    }
+
+    /**
+     * The raw bits of a float path length, which must be finite.
+     */
+    private static long _checked(float sum)
+    {
+        if (sum == Float.POSITIVE_INFINITY)
+            throw new ArithmeticException("Path length overflows float.");
+        return Float.floatToRawIntBits(sum);
+    }
+
+    /**
+     * Mark the targets for the search from source, and run it.
+     */
+    private void _manyToMany(_Workspace ws, int source, int [] targets)
+    {
+        int mark = ++ws.target_epoch;
+        if (mark == 0)
+        {
+            Arrays.fill(ws.target_mark, 0);
+            mark = ws.target_epoch = 1;
+        }
+        int left = 0;
+        for (int j=0;j<targets.length;j++)
+        {
+            if (ws.target_mark[targets[j]] != mark)
+            {
+                ws.target_mark[targets[j]] = mark;
+                left++;
+            }
+        }
+        ws.targets_left = left;
+        this._forward(ws, source, left > 0);
+        return;
+    }
+
+    /**
+     * Forward search from source, over the whole graph, or until ws.targets_left marked
+     * targets are settled.
+     */
+    private void _forward(_Workspace ws, int source, boolean stop_at_targets)
+    {
+        ws._begin();
+        final int [] off = this.offsets;
+        final int [] tgt = this.targets;
+        final long [] lw = this.long_weights;
+        final float [] fw = this.float_weights;
+        final int [] stamp = ws.stamp_f;
+        final long [] dist = ws.dist_f;
+        final int epoch = ws.epoch;
+        final int [] mark = ws.target_mark;
+        final int target_epoch = ws.target_epoch;
+        final _Queue q = ws.forward;
+        int left = ws.targets_left;
+
+        q.clear();
+        stamp[source] = epoch;
+        dist[source] = 0;
+        q.push(source, 0, false);
+        while (!q.isEmpty())
+        {
+            int u = q.pop();
+            long d = q.last_key;
+            if (d != dist[u])
+                continue;
+            if (stop_at_targets && mark[u] == target_epoch && --left == 0)
+                break;
+            for (int e=off[u],end=off[u+1];e<end;e++)
+            {
+                int v = tgt[e];
+                long nd = _add(d, lw, fw, e);
+                if (stamp[v] != epoch)
+                {
+                    stamp[v] = epoch;
+                    dist[v] = nd;
+                    q.push(v, nd, false);
+                }
+                else if (nd < dist[v])
+                {
+                    dist[v] = nd;
+                    q.push(v, nd, true);
+                }
+            }
+        }
+        return;
+    }
+
+    /**
+     * Bidirectional search, expanding the side with the smaller queue minimum, until the
+     * two minimums add up to at least the best path seen.
+     */
+    private long _bidirectional(_Workspace ws, int source, int target)
+    {
+        if (source < 0 || source >= this.vertices || target < 0 || target >= this.vertices)
+            throw new IndexOutOfBoundsException("No such vertex: " + source + " or " + target);
+        if (source == target)
+            return 0;
+
+        ws._begin();
+        final int epoch = ws.epoch;
+        final _Queue fq = ws.forward;
+        final _Queue bq = ws.backward;
+        fq.clear();
+        bq.clear();
+        ws.stamp_f[source] = epoch;
+        ws.dist_f[source] = 0;
+        fq.push(source, 0, false);
+        ws.stamp_b[target] = epoch;
+        ws.dist_b[target] = 0;
+        bq.push(target, 0, false);
+
+        long best = this.inf;
+        while (!fq.isEmpty() && !bq.isEmpty())
+        {
+            long mf = fq.minKey();
+            long mb = bq.minKey();
+            if (best != this.inf && this._atLeast(mf, mb, best))
+                break;
+            if (mf <= mb)
+                best = this._scan(fq, ws.stamp_f, ws.dist_f, ws.stamp_b, ws.dist_b,
+                                  this.offsets, this.targets, this.long_weights, this.float_weights, epoch, best);
+            else
+                best = this._scan(bq, ws.stamp_b, ws.dist_b, ws.stamp_f, ws.dist_f,
+                                  this.reverse_offsets, this.reverse_targets, this.reverse_long_weights, this.reverse_float_weights, epoch, best);
+        }
+        return best;
+    }
+
+    /**
+     * Settle one vertex on one side of a bidirectional search.
+     *
+     * @return The best path length seen so far.
+     */
+    private long _scan(_Queue q, int [] stamp, long [] dist, int [] other_stamp, long [] other_dist,
+                       int [] off, int [] tgt, long [] lw, float [] fw, int epoch, long best)
+    {
+        int u = q.pop();
+        long d = q.last_key;
+        if (d != dist[u])
+            return best;
+        for (int e=off[u],end=off[u+1];e<end;e++)
+        {
+            int v = tgt[e];
+            long nd = _add(d, lw, fw, e);
+            if (stamp[v] != epoch)
+            {
+                stamp[v] = epoch;
+                dist[v] = nd;
+                q.push(v, nd, false);
+            }
+            else if (nd < dist[v])
+            {
+                dist[v] = nd;
+                q.push(v, nd, true);
+            }
+            else
+            {
+                continue;
+            }
+            if (other_stamp[v] == epoch)
+            {
+                long through = this._sum(nd, other_dist[v]);
+                if (through < best)
+                    best = through;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * The arrays of one thread's searches.
+     */
+    static final class _Workspace
+    {
+        final int [] stamp_f;
+        final int [] stamp_b;
+        final long [] dist_f;
+        final long [] dist_b;
+        int epoch;
+
+        final int [] target_mark;
+        int target_epoch;
+        int targets_left;
+
+        final _Queue forward;
+        final _Queue backward;
+
+        _Workspace(int n, int strategy)
+        {
+            this.stamp_f = new int[n];
+            this.stamp_b = new int[n];
+            this.dist_f = new long[n];
+            this.dist_b = new long[n];
+            this.target_mark = new int[n];
+            this.forward = _Queue.create(strategy, n);
+            this.backward = _Queue.create(strategy, n);
+            return;
+        }
+
+        /**
+         * Start a query:  every distance becomes invalid.
+         */
+        void _begin()
+        {
+            if (++this.epoch == 0)
+            {
+                Arrays.fill(this.stamp_f, 0);
+                Arrays.fill(this.stamp_b, 0);
+                this.epoch = 1;
+            }
+            return;
+        }
+    }
+
+    /**
+     * A priority queue of vertices by raw distance.
+     */
+    static abstract class _Queue
+    {
+        /**
+         * The key of the vertex returned by the last pop().
+         */
+        long last_key;
+
+        static _Queue create(int strategy, int n)
+        {
+            switch (strategy)
+            {
+                case PACKED:  return new _PackedQueue();
+                case INDEXED: return new _IndexedQueue(n);
+                default:      return new _RadixQueue();
+            }
+        }
+
+        abstract void clear();
+
+        /**
+         * Queue v with the given key.  If queued is set, v was queued before in this
+         * search, with a larger key.
+         */
+        abstract void push(int v, long key, boolean queued);
+
+        /**
+         * Remove a vertex with the smallest key.  Lazy queues may return a vertex whose key
+         * has since improved; the caller skips it.
+         */
+        abstract int pop();
+
+        abstract boolean isEmpty();
+
+        /**
+         * A lower bound on the keys in the queue.
+         */
+        abstract long minKey();
+    }
+
+    static final class _PackedQueue
+        extends _Queue
+    {
+        final LongHeap heap = new LongHeap();
+
+        void clear()
+        {
+            this.heap.clear();
+            return;
+        }
+
+        void push(int v, long key, boolean queued)
+        {
+            if ((key >>> 32) != 0)
+                throw new IllegalStateException("Distance too large for PACKED: " + key);
+            this.heap.add(((key << 32) | v) ^ Long.MIN_VALUE);
+            return;
+        }
+
+        int pop()
+        {
+            long x = this.heap.pop() ^ Long.MIN_VALUE;
+            this.last_key = x >>> 32;
+            return (int) x;
+        }
+
+        boolean isEmpty()
+        {
+            return this.heap._size == 0;
+        }
+
+        long minKey()
+        {
+            return (this.heap.peek() ^ Long.MIN_VALUE) >>> 32;
+        }
+    }
+
+    static final class _IndexedQueue
+        extends _Queue
+    {
+        final int [] heap;
+        final long [] keys;
+
+        /**
+         * Heap position of each queued vertex.
+         */
+        final int [] pos;
+        int size;
+
+        _IndexedQueue(int n)
+        {
+            this.heap = new int[n];
+            this.keys = new long[n];
+            this.pos = new int[n];
+            return;
+        }
+
+        void clear()
+        {
+            this.size = 0;
+            return;
+        }
+
+        void push(int v, long key, boolean queued)
+        {
+            this._up(queued ? this.pos[v] : this.size++, v, key);
+            return;
+        }
+
+        int pop()
+        {
+            int v = this.heap[0];
+            this.last_key = this.keys[0];
+            int last = --this.size;
+            if (last > 0)
+                this._down(this.heap[last], this.keys[last]);
+            return v;
+        }
+
+        boolean isEmpty()
+        {
+            return this.size == 0;
+        }
+
+        long minKey()
+        {
+            return this.keys[0];
+        }
+
+        private void _up(int i, int v, long key)
+        {
+            final int [] h = this.heap;
+            final long [] k = this.keys;
+            final int [] pos = this.pos;
+            while (i > 0)
+            {
+                int p = (i-1) >> 1;
+                if (k[p] <= key)
+                    break;
+                h[i] = h[p];
+                k[i] = k[p];
+                pos[h[i]] = i;
+                i = p;
+            }
+            h[i] = v;
+            k[i] = key;
+            pos[v] = i;
+            return;
+        }
+
+        private void _down(int v, long key)
+        {
+            final int [] h = this.heap;
+            final long [] k = this.keys;
+            final int [] pos = this.pos;
+            final int n = this.size;
+            int i = 0;
+            int c;
+            while ((c = i+i+1) < n)
+            {
+                long k_c = k[c];
+                if (c+1 < n && k[c+1] < k_c)
+                    k_c = k[++c];
+                if (key <= k_c)
+                    break;
+                h[i] = h[c];
+                k[i] = k_c;
+                pos[h[i]] = i;
+                i = c;
+            }
+            h[i] = v;
+            k[i] = key;
+            pos[v] = i;
+            return;
+        }
+    }
+
+    /**
+     * A radix heap:  bucket b holds the keys whose highest bit differing from the last
+     * popped key is bit b-1, and bucket 0 those equal to it.  Popping from an empty bucket
+     * 0 redistributes the lowest non-empty bucket around its minimum.
+     */
+    static final class _RadixQueue
+        extends _Queue
+    {
+        final long [][] bucket_keys = new long[65][];
+        final int [][] bucket_vertices = new int[65][];
+        final int [] bucket_size = new int[65];
+        int size;
+
+        _RadixQueue()
+        {
+            for (int b=0;b<65;b++)
+            {
+                this.bucket_keys[b] = new long[HashContainerUtils.MIN_CAPACITY];
+                this.bucket_vertices[b] = new int[HashContainerUtils.MIN_CAPACITY];
+            }
+            return;
+        }
+
+        void clear()
+        {
+            Arrays.fill(this.bucket_size, 0);
+            this.size = 0;
+            this.last_key = 0;
+            return;
+        }
+
+        void push(int v, long key, boolean queued)
+        {
+            this._append(64 - Long.numberOfLeadingZeros(key ^ this.last_key), v, key);
+            this.size++;
+            return;
+        }
+
+        private void _append(int b, int v, long key)
+        {
+            int n = this.bucket_size[b];
+            if (n == this.bucket_keys[b].length)
+            {
+                int capacity = HashContainerUtils.nextCapacity(n);
+                this.bucket_keys[b] = Arrays.copyOf(this.bucket_keys[b], capacity);
+                this.bucket_vertices[b] = Arrays.copyOf(this.bucket_vertices[b], capacity);
+            }
+            this.bucket_keys[b][n] = key;
+            this.bucket_vertices[b][n] = v;
+            this.bucket_size[b] = n+1;
+            return;
+        }
+
+        int pop()
+        {
+            if (this.bucket_size[0] == 0)
+            {
+                int b = 1;
+                while (this.bucket_size[b] == 0)
+                    b++;
+
+                // the new last key is the bucket minimum; everything in the bucket moves lower
+                final long [] k = this.bucket_keys[b];
+                final int [] vs = this.bucket_vertices[b];
+                int n = this.bucket_size[b];
+                long min = k[0];
+                for (int i=1;i<n;i++)
+                {
+                    if (k[i] < min)
+                        min = k[i];
+                }
+                this.last_key = min;
+                this.bucket_size[b] = 0;
+                for (int i=0;i<n;i++)
+                    this._append(64 - Long.numberOfLeadingZeros(k[i] ^ min), vs[i], k[i]);
+            }
+            this.size--;
+            return this.bucket_vertices[0][--this.bucket_size[0]];
+        }
+
+        boolean isEmpty()
+        {
+            return this.size == 0;
+        }
+
+        long minKey()
+        {
+            return this.last_key;
+        }
+    }
+}
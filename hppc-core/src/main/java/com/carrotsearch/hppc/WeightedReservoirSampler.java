@@ -0,0 +1,294 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.SplittableRandom;
+
+/**
+ * Samples k items without replacement from a stream of weighted items, with Efraimidis
+ * and Spirakis' A-Res, or A-ExpJ (exponential jumps).
+ *
+ * Each item gets the key u^(1/w) for a uniform u, and the sample is the k items with the
+ * largest keys.  Keys are kept as log(u)/w, which has the same order and doesn't underflow
+ * for large weights.  The reservoir is a min-heap of keys, with each item's long payload
+ * in a parallel array at the same position, so there are no objects per item and a new
+ * item replaces the top and sifts down, as in push_pop().  Int payloads are widened.
+ *
+ * With jumps set, once the reservoir is full the sampler draws how much weight to skip
+ * before the next item enters, and skipped items only add their weight:  no random
+ * number, no logarithm.  The number of items which enter is O(k log(n/k)), so for a
+ * long stream almost all items are skipped.
+ *
+ * Samples of disjoint parts of a stream can be merged with {@link #combine}, since the
+ * keys of the items are independent.  The result is a sample of the whole stream.
+ *
+ * Not thread-safe.
+ */
+public class WeightedReservoirSampler
+{
+    /**
+     * The sample size.
+     */
+    public final int k;
+
+    /**
+     * Use exponential jumps (A-ExpJ) rather than a key per item (A-Res).
+     */
+    public final boolean jumps;
+
+    /**
+     * Log keys of the sampled items, as a min-heap.
+     */
+    public final double [] keys;
+
+    /**
+     * Payloads of the sampled items, at the same positions as their keys.
+     */
+    public final long [] payloads;
+
+    /**
+     * The number of sampled items.
+     */
+    public int _size;
+
+    /**
+     * The number of items offered, including those of combined samplers.
+     */
+    public long count;
+
+    /**
+     * With jumps, the weight still to skip before the next item enters.
+     */
+    private double skip;
+
+    private final SplittableRandom rnd;
+
+    /**
+     * Create an A-ExpJ sampler of k items, seeded from the clock.
+     */
+    public WeightedReservoirSampler(int k)
+    {
+        this(k, true, new SplittableRandom());
+        return;
+    }
+
+    /**
+     * Create a sampler of k items, with exponential jumps or not, and the given seed.
+     */
+    public WeightedReservoirSampler(int k, boolean jumps, long seed)
+    {
+        this(k, jumps, new SplittableRandom(seed));
+        return;
+    }
+
+    WeightedReservoirSampler(int k, boolean jumps, SplittableRandom rnd)
+    {
+        if (k < 1)
+            throw new IllegalArgumentException("Sample size must be at least 1: " + k);
+        this.k = k;
+        this.jumps = jumps;
+        this.keys = new double[k];
+        this.payloads = new long[k];
+        this.rnd = rnd;
+        return;
+    }
+
+    /**
+     * Offer an item with the given weight.  Items of weight 0 are never sampled.
+     */
+    public void offer(long payload, double weight)
+    {
+        if (!(weight >= 0) || weight == Double.POSITIVE_INFINITY)
+            throw new IllegalArgumentException("Weight must be finite and non-negative: " + weight);
+        this.count++;
+        if (weight == 0)
+            return;
+
+        if (this._size < this.k)
+        {
+            this._add(this._logKey(weight), payload);
+            if (this.jumps && this._size == this.k)
+                this._jump();
+            return;
+        }
+
+        if (this.jumps)
+        {
+            this.skip -= weight;
+            if (this.skip > 0)
+                return;
+
+            // the key is uniform among those which beat the smallest:  u^(1/w) with u in (T^w, 1)
+            double t = Math.exp(weight * this.keys[0]);
+            double u = t + (1 - t) * this.rnd.nextDouble();
+            double key = Math.log(u) / weight;
+            if (key > this.keys[0])
+                this._replaceTop(key, payload);
+            this._jump();
+            return;
+        }
+
+        double key = this._logKey(weight);
+        if (key > this.keys[0])
+            this._replaceTop(key, payload);
+        return;
+    }
+
+    /**
+     * Offer an item with an int payload.
+     */
+    public void offer(int payload, double weight)
+    {
+        this.offer((long) payload, weight);
+        return;
+    }
+
+    /**
+     * Merge the sample of another part of the stream into this one.  The other sampler is
+     * left as it was.  Its sample size may differ; this one keeps k items.
+     */
+    public void combine(WeightedReservoirSampler other)
+    {
+        for (int i=0;i<other._size;i++)
+        {
+            double key = other.keys[i];
+            if (this._size < this.k)
+                this._add(key, other.payloads[i]);
+            else if (key > this.keys[0])
+                this._replaceTop(key, other.payloads[i]);
+        }
+        this.count += other.count;
+        if (this.jumps && this._size == this.k)
+            this._jump();
+        return;
+    }
+
+    /**
+     * Copy the sampled payloads, in no particular order, to the start of out.
+     *
+     * @return The number of payloads, min(k, number of items of non-zero weight).
+     */
+    public int sample(long [] out)
+    {
+        System.arraycopy(this.payloads, 0, out, 0, this._size);
+        return this._size;
+    }
+
+    /**
+     * Copy the sampled payloads, narrowed to ints, to the start of out.
+     *
+     * @return The number of payloads.
+     */
+    public int sampleInts(int [] out)
+    {
+        for (int i=0;i<this._size;i++)
+            out[i] = (int) this.payloads[i];
+        return this._size;
+    }
+
+    public int size()
+    {
+        return this._size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    /**
+     * The smallest log key in the sample, which an item must beat to enter a full sample.
+     */
+    public double minKey()
+    {
+        assert this._size > 0;
+        return this.keys[0];
+    }
+
+    public void clear()
+    {
+        this._size = 0;
+        this.count = 0;
+        this.skip = 0;
+        return;
+    }
+
+    /**
+     * log(u^(1/w)) for a uniform u in (0, 1].
+     */
+    private double _logKey(double weight)
+    {
+        return Math.log(1 - this.rnd.nextDouble()) / weight;
+    }
+
+    /**
+     * Draw the weight to skip:  log(r) / log(T) for the smallest key T.
+     */
+    private void _jump()
+    {
+        this.skip = Math.log(1 - this.rnd.nextDouble()) / this.keys[0];
+        return;
+    }
+
+    /**
+     * Add to a sample which isn't full.
+     */
+    private void _add(double key, long payload)
+    {
+        final double [] h = this.keys;
+        final long [] p = this.payloads;
+        int i = this._size++;
+        while (i > 0)
+        {
+            int parent = (i-1) >> 1;
+            if (h[parent] <= key)
+                break;
+            h[i] = h[parent];
+            p[i] = p[parent];
+            i = parent;
+        }
+        h[i] = key;
+        p[i] = payload;
+        return;
+    }
+
+    /**
+     * Replace the item with the smallest key, and sift the new one down.
+     */
+    private void _replaceTop(double key, long payload)
+    {
+        final double [] h = this.keys;
+        final long [] p = this.payloads;
+        final int n = this._size;
+        int i = 0;
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            double h_c = h[c];
+            if (c+1 < n && h[c+1] < h_c)
+                h_c = h[++c];
+            if (key <= h_c)
+                break;
+            h[i] = h_c;
+            p[i] = p[c];
+            i = c;
+        }
+        h[i] = key;
+        p[i] = payload;
+        return;
+    }
+}
@@ -0,0 +1,545 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.Iterator;
+
+import com.carrotsearch.hppc.cursors.KTypeCursor;
+import com.carrotsearch.hppc.predicates.KTypePredicate;
+import com.carrotsearch.hppc.procedures.KTypeProcedure;
+
+/**
+ * A min-heap of <code>KType</code>s, using built-in comparison, laid out as a B-heap.
+ *
+ * This is a drop-in replacement for {@link KTypeHeap} which keeps subtrees of the heap
+ * together in pages of {@link #page_size} elements, following Poul-Henning Kamp's B-heap
+ * as found in Varnish.  A sift from the root to a leaf then touches about log_B(n) pages
+ * instead of log_2(n), which matters once the heap is much larger than the TLB reach
+ * (or than physical memory).  For small heaps it is a little slower than {@link KTypeHeap},
+ * because the index arithmetic is more involved.
+ *
+ * Index 0 is unused and the root is at index 1.  The first page is an ordinary binary
+ * heap.  On every other page, the first two slots are the children of one element on the
+ * bottom row of the parent page, and each has a single child (slots 2 and 3).  From there
+ * on the page is an ordinary binary tree, and each element on its bottom row is the
+ * parent of both roots of one child page.  Elements are still added in index order, so
+ * the heap is dense.
+ *
+ * Pages are relative to the start of the array, which the JVM doesn't align to OS pages,
+ * so a heap page usually straddles two OS pages.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public class KTypeBHeap<KType>
+    extends AbstractKTypeCollection<KType>
+    implements Cloneable
+{
+    /**
+     * Experimental!
+     */
+    public static boolean experimental_warning = true;
+
+    /**
+     * Minimum capacity.  Borrowed from HashContainerUtils.
+     */
+    public final static int MIN_CAPACITY = HashContainerUtils.MIN_CAPACITY;
+
+    /**
+     * Default capacity.  Borrowed from HashContainerUtils.
+     */
+    public final static int DEFAULT_CAPACITY = HashContainerUtils.DEFAULT_CAPACITY;
+
+    /**
+     * Default log2 of the page size in elements.  512 elements is one 4 KB page of
+     * <code>long</code>s or <code>double</code>s.
+     */
+    public final static int DEFAULT_PAGE_SHIFT = 9;
+
+    /**
+     * The actual heap data.  Index 0 is unused.
+     */
+    public KType [] heap;
+
+    /**
+     * The number of heap elements in use; they occupy indices 1 to _size.
+     */
+    public int _size;
+
+    /**
+     * log2 of the page size.
+     */
+    public final int page_shift;
+
+    /**
+     * Number of elements in a page.
+     */
+    public final int page_size;
+
+    /**
+     * page_size - 1.
+     */
+    public final int page_mask;
+
+    /**
+     * Create a heap with the default capacity of {@value #DEFAULT_CAPACITY} and the default page size.
+     */
+    public KTypeBHeap()
+    {
+        this(DEFAULT_CAPACITY);
+        return;
+    }
+
+    /**
+     * Create a heap with the given capacity and the default page size.
+     */
+    public KTypeBHeap(int initialCapacity)
+    {
+        this(initialCapacity, DEFAULT_PAGE_SHIFT);
+        return;
+    }
+
+    /**
+     * Create a heap with the given capacity and pages of (1 &lt;&lt; pageShift) elements.
+     */
+    public KTypeBHeap(int initialCapacity, int pageShift)
+    {
+        if (pageShift < 2 || pageShift > 20)
+            throw new IllegalArgumentException("Page shift must be between 2 and 20: " + pageShift);
+
+        this.page_shift = pageShift;
+        this.page_size = 1 << pageShift;
+        this.page_mask = this.page_size - 1;
+
+        initialCapacity = Math.max(initialCapacity, MIN_CAPACITY);
+
+        assert initialCapacity > 0
+            : "Initial capacity must be between (0, " + Integer.MAX_VALUE + "].";
+
+        if (experimental_warning)
+        {
+            System.err.println("hppc:  Heap classes are still considered experimental, use at own risk.  Set "+KTypeBHeap.class+".experimental_warning = false to suppress this message.");
+            experimental_warning = false;
+        }
+
+        // one extra slot, since index 0 is unused
+        this.allocateBuffers(HashContainerUtils.roundCapacity(Math.max(initialCapacity + 1, this.page_size)));
+        return;
+    }
+
+    /**
+     * Create a heap from elements of another container.  Default page size is used.
+     */
+    public KTypeBHeap(KTypeContainer<KType> container)
+    {
+        this((int) (container.size()));
+        this.addAll(container);
+        return;
+    }
+
+    /**
+     * Index of the parent of element u, for u &gt; 1.
+     */
+    private int _parent(int u)
+    {
+        int po = u & this.page_mask;
+
+        if (u < this.page_size || po > 3)
+        {
+            // first page, or an ordinary element inside a page
+            return (u & ~this.page_mask) | (po >> 1);
+        }
+        if (po < 2)
+        {
+            // root of a page; its parent is on the bottom row of the parent page
+            int v = (u - this.page_size) >> this.page_shift;
+            v += v & ~(this.page_mask >> 1);
+            return v | (this.page_size >> 1);
+        }
+        // single child of a page root
+        return u - 2;
+    }
+
+    /**
+     * Index of the first child of element u.  The second child, if any, is at the next index;
+     * see {@link #_onlyChild}.  May be beyond the end of the array.
+     */
+    private long _child(int u)
+    {
+        int po = u & this.page_mask;
+
+        if (u > this.page_mask && (po & ~1) == 0)
+        {
+            // roots of all but the first page have a single child
+            return u + 2;
+        }
+        if ((po & (this.page_size >> 1)) != 0)
+        {
+            // bottom row:  both children are the roots of a child page
+            long page = ((u & ~this.page_mask) >>> 1) | (po & (this.page_mask >> 1));
+            return (page + 1) << this.page_shift;
+        }
+        return u + po;
+    }
+
+    /**
+     * True if element u has at most one child.
+     */
+    private boolean _onlyChild(int u)
+    {
+        return u > this.page_mask && (u & (this.page_mask - 1)) == 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    //@Override
+    public boolean add(KType e)
+    {
+        int u = this._size + 1;
+
+        if (u == this.heap.length)
+        {
+            this.expand();
+            assert u < this.heap.length;
+        }
+
+        // sift the hole up from the end of the heap
+        while (u > 1)
+        {
+            int p = this._parent(u);
+            KType p_e = this.heap[p];
+            if (p_e <= e)
+                break;
+            this.heap[u] = p_e;
+            u = p;
+        }
+        this.heap[u] = e;
+        this._size++;
+        return true;
+    }
+
+    /**
+     * Add two elements to the heap.
+     *
+     * @return Returns the number of elements that were added to the heap (equal
+     * to the number of arguments passed).
+     */
+    public int add(KType e1, KType e2)
+    {
+        int count = 0;
+        count += (this.add(e1) ? 1 : 0);
+        count += (this.add(e2) ? 1 : 0);
+        return count;
+    }
+
+    /**
+     * Vararg-signature method for adding elements to this heap.
+     * <p><b>This method is handy, but costly if used in tight loops (anonymous
+     * array passing)</b></p>
+     *
+     * @return Returns the number of elements that were added to the heap (equal
+     * to the number of arguments passed).
+     */
+    public int add(KType... elements)
+    {
+        int count = 0;
+        for (KType e : elements)
+            count += (this.add(e) ? 1 : 0);
+        return count;
+    }
+
+    /**
+     * Adds all elements from a given container to this heap.
+     *
+     * @return Returns the number of elements actually added as a result of this
+     * call (equal to the number of elements in container).
+     */
+    public int addAll(KTypeContainer<? extends KType> container)
+    {
+        return addAll((Iterable<? extends KTypeCursor<? extends KType>>) container);
+    }
+
+    /**
+     * Adds all elements from a given iterable to this heap.
+     *
+     * @return Returns the number of elements actually added as a result of this
+     * call (equal to the number of elements in iterable).
+     */
+    public int addAll(Iterable<? extends KTypeCursor<? extends KType>> iterable)
+    {
+        int count = 0;
+        for (KTypeCursor<? extends KType> cursor : iterable)
+            count += (add(cursor.value) ? 1 : 0);
+        return count;
+    }
+
+    /**
+     * Remove and return the topmost element from the heap.
+     *
+     * @return The smallest element in the heap.
+     */
+    public KType pop()
+    {
+        int n = this._size;
+        assert n > 0;
+
+        KType result = this.heap[1];
+        this._size = n-1;
+        if (n > 1)
+        {
+            this.heap[1] = this.heap[n];
+            this._relax();
+        }
+        /* #if ($TemplateOptions.KTypeGeneric) */ this.heap[n] = null; /* #end */
+        return result;
+    }
+
+    private void _relax()
+    {
+        // This method fixes a heap which is OK except for possibly the root element.
+
+        final KType [] h = this.heap;
+        int n = this._size;
+        int u = 1;
+        KType h_p = h[1];
+
+        while (true)
+        {
+            long c = this._child(u);
+            if (c > n)
+                break;
+
+            // pick the lighter child
+            int a = (int) c;
+            KType h_a = h[a];
+            if (a < n && !this._onlyChild(u))
+            {
+                KType h_b = h[a+1];
+                if (h_b < h_a)
+                {
+                    h_a = h_b;
+                    a++;
+                }
+            }
+
+            if (h_p <= h_a)
+                break;
+            h[u] = h_a;
+            u = a;
+        }
+        h[u] = h_p;
+        return;
+    }
+
+    /**
+     * Push the given value, then pop a value.
+     *
+     * Much more efficient than a call to push() followed by a call to pop().
+     */
+    public KType push_pop(KType e)
+    {
+        if (this._size == 0)
+            return e;
+        KType result = this.heap[1];
+        if (e <= result)
+            return e;
+        this.heap[1] = e;
+        this._relax();
+        return result;
+    }
+
+    /**
+     * Pop a value, then push the given value.
+     *
+     * Much more efficient than a call to pop() followed by a call to push().
+     */
+    public KType pop_push(KType e)
+    {
+        assert this._size > 0;
+        KType result = this.heap[1];
+        this.heap[1] = e;
+        this._relax();
+        return result;
+    }
+
+    /**
+     * Return the topmost element in the heap.
+     */
+    public KType peek()
+    {
+        assert this._size > 0;
+        return this.heap[1];
+    }
+
+    /**
+     * Check if the heap is empty.
+     *
+     * You should call this before peek(), pop(), or pop_push()
+     */
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    @Override
+    public void clear()
+    {
+        this._size = 0;
+        return;
+    }
+
+    //@Override
+    public int removeAll(KTypeContainer<? extends KType> container)
+    {
+        throw(new UnsupportedOperationException("illegal operation: removal from heap"));
+    }
+
+    @Override
+    public int removeAll(KTypePredicate<? super KType> predicate)
+    {
+        throw(new UnsupportedOperationException("illegal operation: removal from heap"));
+    }
+
+    //@Override
+    public boolean remove(KType key)
+    {
+        throw(new UnsupportedOperationException("illegal operation: removal from heap"));
+    }
+
+    /**
+     * Test for membership.  Arguments smaller than the smallest element in the container are
+     * quickly rejected in O(1).  Otherwise the entire heap is scanned by brute force until a match is found.
+     */
+    @Override
+    public boolean contains(KType k)
+    {
+        int n = this._size;
+        if (n == 0)
+            return false;
+        final KType [] h = this.heap;
+        if (k < h[1])
+            return false;
+        for(int i=1;i<=n;i++)
+        {
+            if (h[i] == k)
+                return true;
+        }
+        return false;
+    }
+
+    @Override
+    public int removeAllOccurrences(KType key)
+    {
+        throw(new UnsupportedOperationException("illegal operation: removal from heap"));
+    }
+
+    /**
+     * This function visits the elements in unsorted order.
+     */
+
+    @Override
+    public <T extends KTypeProcedure<? super KType>> T forEach(T procedure)
+    {
+        final KType [] h = this.heap;
+        int n = this._size;
+
+        for(int i=1;i<=n;i++)
+            procedure.apply(h[i]);
+
+        return procedure;
+    }
+
+    /**
+     * This function visits the elements in unsorted order.
+     */
+
+    @Override
+    public <T extends KTypePredicate<? super KType>> T forEach(T predicate)
+    {
+        final KType [] h = this.heap;
+        int n = this._size;
+
+        for(int i=1;i<=n;i++)
+        {
+            if (!predicate.apply(h[i]))
+                break;
+        }
+
+        return predicate;
+    }
+
+    @Override
+    public int size()
+    {
+        return this._size;
+    }
+
+    /**
+     * Iterate over elements in unsorted order.  The cursor index is the position in
+     * {@link KTypeBHeap#heap}, starting at 1.
+     */
+    public static class _Iterator
+        extends AbstractIterator<KTypeCursor<KType>>
+    {
+        public KTypeBHeap heap;
+        public KTypeCursor<KType> cursor;
+
+        public _Iterator(KTypeBHeap heap)
+        {
+            this.heap = heap;
+            this.cursor = new KTypeCursor<KType>();
+            this.cursor.index = 0;
+            return;
+        }
+
+        @Override
+        protected KTypeCursor<KType> fetch()
+        {
+            int i = this.cursor.index+1;
+            if (i > this.heap._size)
+                return this.done();
+            this.cursor.index = i;
+            this.cursor.value = this.heap.heap[i];
+            return cursor;
+        }
+    }
+
+    /**
+     * Iterate over elements in unsorted order.
+     */
+    @Override
+    public Iterator<KTypeCursor<KType>> iterator()
+    {
+        return new _Iterator(this);
+    }
+
+    public void expand()
+    {
+        this.allocateBuffers(HashContainerUtils.nextCapacity(this.heap.length));
+        return;
+    }
+
+    public void allocateBuffers(int capacity)
+    {
+        KType [] new_heap = Intrinsics.newKTypeArray(capacity);
+        if (this.heap != null)
+            System.arraycopy(this.heap, 0, new_heap, 0, Math.min(this._size + 1, capacity));
+        this.heap = new_heap;
+        return;
+    }
+
+}
@@ -0,0 +1,302 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * An unbounded, thread-safe min-heap of <code>KType</code>s for producer/consumer use,
+ * built on {@link KTypeHeap}.
+ *
+ * All access goes through a single {@link ReentrantLock}, and consumers wait on a
+ * {@link Condition} rather than in <code>synchronized</code> blocks, so waiting virtual
+ * threads unmount instead of pinning their carrier.  Elements are stored in the
+ * primitive array of the underlying heap:  only growing the heap allocates.
+ *
+ * The batch methods take the lock once per call, not once per element.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public class KTypeBlockingHeap<KType>
+{
+    /**
+     * The underlying heap.  Only touched with the lock held.
+     */
+    private final KTypeHeap<KType> heap;
+
+    private final ReentrantLock lock;
+
+    /**
+     * Signalled when elements are added.
+     */
+    private final Condition notEmpty;
+
+    /**
+     * Create a heap with the default capacity.
+     */
+    public KTypeBlockingHeap()
+    {
+        this(KTypeHeap.DEFAULT_CAPACITY);
+        return;
+    }
+
+    /**
+     * Create a heap with the given capacity.
+     */
+    public KTypeBlockingHeap(int initialCapacity)
+    {
+        this(initialCapacity, false);
+        return;
+    }
+
+    /**
+     * Create a heap with the given capacity, and a lock with the given fairness.
+     */
+    public KTypeBlockingHeap(int initialCapacity, boolean fair)
+    {
+        this.heap = new KTypeHeap<KType>(initialCapacity);
+        this.lock = new ReentrantLock(fair);
+        this.notEmpty = this.lock.newCondition();
+        return;
+    }
+
+    /**
+     * Add an element.  The heap is unbounded, so this never blocks waiting for space.
+     */
+    public void put(KType e)
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            this.heap.add(e);
+            this.notEmpty.signal();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return;
+    }
+
+    /**
+     * Add length elements of src, starting at offset, taking the lock once.  The range is
+     * checked before anything is added.
+     */
+    public void put(KType [] src, int offset, int length)
+    {
+        if (offset < 0 || length < 0 || length > src.length - offset)
+            throw new IndexOutOfBoundsException("Bad range: " + offset + ", " + length);
+        if (length == 0)
+            return;
+
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            final KTypeHeap<KType> h = this.heap;
+            for (int i=offset;i<offset+length;i++)
+                h.add(src[i]);
+            if (length == 1)
+                this.notEmpty.signal();
+            else
+                this.notEmpty.signalAll();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return;
+    }
+
+    /**
+     * Remove and return the smallest element, waiting until one is available.
+     */
+    public KType take()
+        throws InterruptedException
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try
+        {
+            while (this.heap._size == 0)
+                this.notEmpty.await();
+            return this.heap.pop();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return the smallest element, waiting up to the given time for one to become
+     * available.
+     *
+     * @return The smallest element, or defaultValue if the heap was still empty when the
+     * timeout expired.
+     */
+    public KType poll(long timeout, TimeUnit unit, KType defaultValue)
+        throws InterruptedException
+    {
+        long nanos = unit.toNanos(timeout);
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try
+        {
+            while (this.heap._size == 0)
+            {
+                if (nanos <= 0)
+                    return defaultValue;
+                nanos = this.notEmpty.awaitNanos(nanos);
+            }
+            return this.heap.pop();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove and return the smallest element if there is one, without waiting.
+     *
+     * @return The smallest element, or defaultValue if the heap is empty.
+     */
+    public KType poll(KType defaultValue)
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            return (this.heap._size == 0) ? defaultValue : this.heap.pop();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Remove up to max of the smallest elements into dst, smallest first, without waiting.
+     * The lock is taken once for the whole batch.  A max below zero counts as zero.
+     *
+     * @return The number of elements stored at the start of dst.
+     */
+    public int drainTo(KType [] dst, int max)
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            final KTypeHeap<KType> h = this.heap;
+            int n = Math.max(Math.min(Math.min(max, dst.length), h._size), 0);
+            for (int i=0;i<n;i++)
+                dst[i] = h.pop();
+            return n;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Wait until the heap is not empty, then remove up to max of the smallest elements into
+     * dst, smallest first.  The lock is taken once for the whole batch.
+     *
+     * @return The number of elements stored at the start of dst; at least one unless max or
+     * dst.length is zero, or max is below zero, in which case it returns 0 at once.
+     */
+    public int takeTo(KType [] dst, int max)
+        throws InterruptedException
+    {
+        if (Math.min(max, dst.length) <= 0)
+            return 0;
+        final ReentrantLock lock = this.lock;
+        lock.lockInterruptibly();
+        try
+        {
+            final KTypeHeap<KType> h = this.heap;
+            while (h._size == 0)
+                this.notEmpty.await();
+            int n = Math.min(Math.min(max, dst.length), h._size);
+            for (int i=0;i<n;i++)
+                dst[i] = h.pop();
+            return n;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Return the smallest element without removing it.
+     *
+     * @return The smallest element, or defaultValue if the heap is empty.
+     */
+    public KType peek(KType defaultValue)
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            return (this.heap._size == 0) ? defaultValue : this.heap.peek();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public int size()
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            return this.heap._size;
+        }
+        finally
+        {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size() == 0;
+    }
+
+    public void clear()
+    {
+        final ReentrantLock lock = this.lock;
+        lock.lock();
+        try
+        {
+            this.heap.clear();
+        }
+        finally
+        {
+            lock.unlock();
+        }
+        return;
+    }
+}
@@ -17,6 +17,8 @@
 package com.carrotsearch.hppc;
 
 import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 import com.carrotsearch.hppc.cursors.KTypeCursor;
 import com.carrotsearch.hppc.predicates.KTypePredicate;
@@ -46,6 +48,11 @@ public class KTypeHeap<KType>
      */
     public final static int DEFAULT_CAPACITY = HashContainerUtils.DEFAULT_CAPACITY;
 
+    /**
+     * Subtrees with fewer elements than this are heapified serially by {@link #parallelFrom}.
+     */
+    public final static int PARALLEL_THRESHOLD = 1 << 16;
+
     /**
      * The actual heap data.
      */
@@ -56,6 +63,63 @@ public class KTypeHeap<KType>
      */
     public int _size;
 
+    /**
+     * Use bottom-up sift-down in pop(), pop_push() and push_pop().
+     *
+     * The hole left at the root is walked down the path of smaller children to a leaf with
+     * one comparison per level, then the displaced element is sifted back up from there.
+     * It usually ends near the bottom, so this takes about half the comparisons of the
+     * default top-down sift, at the cost of a few more moves.
+     */
+    public boolean bottom_up = false;
+
+    /**
+     * If set, receives every add(), pop(), push_pop(), pop_push() and clear() before it
+     * runs, e.g. a {@link HeapTrace} recording them for replay.
+     */
+    public KTypeHeapTracer<KType> tracer;
+
+    /**
+     * Defer heap maintenance for added elements until they are needed.
+     *
+     * In this mode add() just appends to an unordered buffer at the end of the heap
+     * array and tracks the smallest buffered element.  As long as the top of the heap is
+     * smaller than that, pop(), pop_push() and push_pop() work on the heap alone.  Once
+     * the buffer could hold the smallest element, it is merged into the heap:  with a
+     * linear heapify if the buffer is at least as large as the heap, otherwise with one
+     * sift-up per buffered element.  This suits bursts of adds between pops, since most
+     * of the added elements never need to be near the top.
+     */
+    public boolean buffered = false;
+
+    /**
+     * The number of elements at the end of heap which are not yet in heap order.
+     * Always 0 unless buffered is (or was) set.
+     */
+    public int _buffer_size;
+
+    /**
+     * The smallest of the buffered elements, if there are any.
+     */
+    public KType _buffer_min;
+
+    /**
+     * Publish copy-on-write snapshots for readers on other threads.
+     *
+     * The heap itself has a single writer and no locking.  A reader calls snapshot(),
+     * which returns the latest published {@link KTypeHeapSnapshot} and asks for a new
+     * one.  The writer checks for a request at the start of add(), pop(), pop_push(),
+     * push_pop() and clear(), and if there is one, copies heap[0.._size) into a new
+     * snapshot before carrying on.  So nothing is copied unless someone is reading, and
+     * when snapshots are off the write path only pays for testing this field.  A writer
+     * which goes quiet can call publish() itself.  Turn this on with enableSnapshots().
+     */
+    public boolean snapshots = false;
+
+    private volatile boolean snapshot_requested;
+
+    private volatile KTypeHeapSnapshot<KType> snapshot;
+
     /**
      * Create a heap with the default capacity of {@value #DEFAULT_CAPACITY}.
 `     */
@@ -95,12 +159,36 @@ public class KTypeHeap<KType>
         return;
     }
 
+    /**
+     * Create a heap from the elements of an array.
+     *
+     * The array is copied and heapified in O(n).  Subtrees are heapified in parallel on the
+     * common {@link ForkJoinPool}, and the levels above them are fixed serially as the
+     * subtrees complete.
+     */
+    public static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      KTypeHeap<KType> parallelFrom(KType [] data)
+    {
+        int n = data.length;
+        KTypeHeap<KType> h = new KTypeHeap<KType>(n);
+        System.arraycopy(data, 0, h.heap, 0, n);
+        h._size = n;
+        if (n > 1)
+            ForkJoinPool.commonPool().invoke(new _Heapify<KType>(h.heap, 0, n));
+        return h;
+    }
+
     /**
      * {@inheritDoc}
      */
     //@Override
     public boolean add(KType e)
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.ADD, e);
+        if (this.snapshots && this.snapshot_requested)
+            this.publish();
+
         int n = this._size;
 
         assert n <= this.heap.length;
@@ -119,13 +207,24 @@ public class KTypeHeap<KType>
             assert n == this._size;
         }
 
-        // Use the following algorithm to add elements to the heap:
-        //  Put new element at the bottom of the heap.
-        //  Swap the new element and its parent up the tree, until
-        //    the new element has an element heavier than its parent
-        //    or the top of the tree is reached.
+        if (this.buffered)
+        {
+            this.heap[n] = e;
+            if (this._buffer_size == 0 || e < this._buffer_min)
+                this._buffer_min = e;
+            this._buffer_size++;
+            this._size++;
+            return true;
+        }
+        if (this._buffer_size != 0)
+            this._flush();
 
-        this.heap[n] = e;
+        // Use the following algorithm to add elements to the heap:
+        //  Start with a hole at the bottom of the heap.
+        //  Move the hole up the tree by pulling each heavier parent down
+        //    into it, until the new element is no lighter than the parent
+        //    or the top of the tree is reached, and store the new element
+        //    in the hole.
 
         while(n > 0)
         {
@@ -137,10 +236,11 @@ public class KTypeHeap<KType>
             if (p_e <= e)
                 break;
 
-            this.heap[p] = e;
+            // move the parent down into the hole
             this.heap[n] = p_e;
             n = p;
         }
+        this.heap[n] = e;
         this._size++;
         return true;
     }
@@ -207,6 +307,13 @@ public class KTypeHeap<KType>
      */
     public KType pop()
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.POP);
+        if (this.snapshots && this.snapshot_requested)
+            this.publish();
+        if (this._buffer_size != 0 && this._buffer_on_top())
+            this._flush();
+
         int n = this._size;
         int nm1 = n-1;
         assert n > 0;
@@ -219,11 +326,18 @@ public class KTypeHeap<KType>
         //
         // child elements of i : (i << 1) + 1, (i << 1) + 2
 
+        // with a buffer, the last heap element moves to the root and the last buffered
+        // element fills its slot
         KType result = this.heap[0];
-        this.heap[0] = this.heap[nm1];
-        /* #if ($TemplateOptions.KTypeGeneric) */ this.heap[nm1] = null; /* #end */
-        this._relax();
+        int mm1 = nm1 - this._buffer_size;
         this._size = nm1;
+        if (mm1 > 0)
+            this.heap[0] = this.heap[mm1];
+        if (mm1 != nm1)
+            this.heap[mm1] = this.heap[nm1];
+        if (mm1 > 0)
+            this._relax();
+        /* #if ($TemplateOptions.KTypeGeneric) */ this.heap[nm1] = null; /* #end */
         return result;
     }
 
@@ -231,7 +345,13 @@ public class KTypeHeap<KType>
     {
         // This method fixes a heap which is OK except for possibly the root element.
 
-        int n = this._size;
+        if (this.bottom_up)
+        {
+            this._relax_bottom_up();
+            return;
+        }
+
+        int n = this._size - this._buffer_size;
         int p = 0;
         KType h_p = this.heap[0];
 
@@ -295,6 +415,46 @@ public class KTypeHeap<KType>
         return;
     }
 
+    private void _relax_bottom_up()
+    {
+        // Bottom-up variant of _relax(), see bottom_up.
+
+        final KType [] h = this.heap;
+        int n = this._size - this._buffer_size;
+        int p = 0, c;
+        KType h_p = h[0];
+
+        // walk the hole down to a leaf, pulling up the smaller child at each level
+        while ((c = p+p+1) < n)
+        {
+            KType h_c = h[c];
+            if (c+1 < n)
+            {
+                KType h_d = h[c+1];
+                if (h_d < h_c)
+                {
+                    h_c = h_d;
+                    c++;
+                }
+            }
+            h[p] = h_c;
+            p = c;
+        }
+
+        // sift the displaced element back up from the leaf
+        while (p > 0)
+        {
+            int q = (p-1) >> 1;
+            KType h_q = h[q];
+            if (h_q <= h_p)
+                break;
+            h[p] = h_q;
+            p = q;
+        }
+        h[p] = h_p;
+        return;
+    }
+
     /**
      * Push the given value, then pop a value.
      *
@@ -302,8 +462,19 @@ public class KTypeHeap<KType>
      */
     public KType push_pop(KType e)
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.PUSH_POP, e);
+        if (this.snapshots && this.snapshot_requested)
+            this.publish();
         if (this._size == 0)
             return e;
+        if (this._buffer_size != 0)
+        {
+            if (e <= this.peek())
+                return e;
+            if (this._buffer_on_top())
+                this._flush();
+        }
         KType result = this.heap[0];
         if (e <= result)
             return e;
@@ -319,7 +490,13 @@ public class KTypeHeap<KType>
      */
     public KType pop_push(KType e)
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.POP_PUSH, e);
         assert this._size > 0;
+        if (this.snapshots && this.snapshot_requested)
+            this.publish();
+        if (this._buffer_size != 0 && this._buffer_on_top())
+            this._flush();
         KType result = this.heap[0];
         this.heap[0] = e;
         this._relax();
@@ -332,6 +509,12 @@ public class KTypeHeap<KType>
     public KType peek()
     {
         assert this._size > 0;
+        if (this._buffer_size != 0)
+        {
+            // the buffer starts at 0 if everything is buffered
+            KType top = this.heap[0];
+            return (this._buffer_min < top) ? this._buffer_min : top;
+        }
         return this.heap[0];
     }
 
@@ -348,10 +531,139 @@ public class KTypeHeap<KType>
     @Override
     public void clear()
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.CLEAR);
+        if (this.snapshots && this.snapshot_requested)
+            this.publish();
         this._size = 0;
+        this._buffer_size = 0;
+        return;
+    }
+
+    /**
+     * Replace every element e with f.apply(e), in one pass over the array.
+     *
+     * If monotone is set, f must preserve order (a &lt;= b implies f(a) &lt;= f(b)), as
+     * scaling by a positive factor or subtracting an epoch does, and the heap is left as
+     * it is.  Otherwise it is rebuilt in O(n), which also merges any buffered elements.
+     * With assertions enabled the heap order is checked afterwards, which catches a
+     * function wrongly declared monotone.
+     *
+     * A tracer sees a clear() followed by an add() of each new element.
+     */
+    public void transformAll(KTypeUnaryOperator<KType> f, boolean monotone)
+    {
+        if (this.snapshots && this.snapshot_requested)
+            this.publish();
+
+        final KType [] h = this.heap;
+        final int n = this._size;
+        final int k = this._buffer_size;
+        for (int i=0;i<n;i++)
+            h[i] = f.apply(h[i]);
+
+        if (!monotone)
+        {
+            this._buffer_size = 0;
+            _heapify(h, 0, n);
+        }
+        else if (k != 0)
+        {
+            KType min = h[n-k];
+            for (int i=n-k+1;i<n;i++)
+            {
+                if (h[i] < min)
+                    min = h[i];
+            }
+            this._buffer_min = min;
+        }
+        assert this._isHeap() : "Heap order broken; is the function really monotone?";
+
+        if (this.tracer != null)
+        {
+            this.tracer.trace(HeapTrace.CLEAR);
+            for (int i=0;i<n;i++)
+                this.tracer.trace(HeapTrace.ADD, h[i]);
+        }
+        return;
+    }
+
+    /**
+     * Check the heap order of the elements outside the buffer.
+     */
+    boolean _isHeap()
+    {
+        final KType [] h = this.heap;
+        int m = this._size - this._buffer_size;
+        for (int i=1;i<m;i++)
+        {
+            if (h[i] < h[(i-1) >> 1])
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Start publishing snapshots, with a first one of the current contents.  Call this from
+     * the writer thread.
+     */
+    public void enableSnapshots()
+    {
+        this.snapshots = true;
+        this.publish();
+        return;
+    }
+
+    /**
+     * Publish a snapshot of the current contents now.  Call this from the writer thread.
+     */
+    public void publish()
+    {
+        this.snapshot_requested = false;
+        this.snapshot = new KTypeHeapSnapshot<KType>(this);
         return;
     }
 
+    /**
+     * Return the latest published snapshot, and ask the writer for a new one.  Safe to call
+     * from any thread.
+     *
+     * @return The snapshot, or null if snapshots were never enabled.
+     */
+    public KTypeHeapSnapshot<KType> snapshot()
+    {
+        if (!this.snapshot_requested)
+            this.snapshot_requested = true;
+        return this.snapshot;
+    }
+
+    /**
+     * Return a copy of the heap, with its own array holding a copy of heap[0.._size).
+     * The copy doesn't publish snapshots and has no tracer.
+     */
+    @Override
+    public KTypeHeap<KType> clone()
+    {
+        try
+        {
+            /* #if ($TemplateOptions.KTypeGeneric) */
+            @SuppressWarnings("unchecked")
+            /* #end */
+            final KTypeHeap<KType> cloned = (KTypeHeap<KType>) super.clone();
+            cloned.heap = Intrinsics.newKTypeArray(this.heap.length);
+            System.arraycopy(this.heap, 0, cloned.heap, 0, this._size);
+            cloned.snapshots = false;
+            cloned.snapshot_requested = false;
+            cloned.snapshot = null;
+            cloned.tracer = null;
+            return cloned;
+        }
+        catch (CloneNotSupportedException e)
+        {
+            throw new RuntimeException(e);
+        }
+    }
+
     //@Override
     public int removeAll(KTypeContainer<? extends KType> container)
     {
@@ -383,9 +695,9 @@ public class KTypeHeap<KType>
         if (n == 0)
             return false;
         final KType [] h = this.heap;
-        if (k < h[0])
+        if (k < this.peek())
             return false;
-        for(int i=0;i<h.length;i++)
+        for(int i=0;i<n;i++)
         {
             if (h[i] == k)
                 return true;
@@ -436,6 +748,30 @@ public class KTypeHeap<KType>
         return predicate;
     }
 
+    /**
+     * Visit the elements in unsorted order, in parallel on the common {@link ForkJoinPool}.
+     */
+    public <T extends KTypeProcedure<? super KType>> T parallelForEach(T procedure)
+    {
+        return this.parallelForEach(procedure, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Visit the elements in unsorted order, in parallel on the given pool.
+     *
+     * The elements are split into ranges of at most {@value #PARALLEL_THRESHOLD}, so the
+     * procedure is called from several threads at once and must be safe for that.  The heap
+     * must not be modified until this returns.
+     */
+    public <T extends KTypeProcedure<? super KType>> T parallelForEach(T procedure, ForkJoinPool pool)
+    {
+        int n = this._size;
+        if (n <= PARALLEL_THRESHOLD)
+            return this.forEach(procedure);
+        pool.invoke(new _ForEach<KType>(this.heap, 0, n, procedure));
+        return procedure;
+    }
+
     @Override
     public int size()
     {
@@ -482,6 +818,197 @@ public class KTypeHeap<KType>
         return new _Iterator(this);
     }
 
+    /**
+     * True if the smallest element may be in the buffer rather than at the top of the heap.
+     */
+    private boolean _buffer_on_top()
+    {
+        return this._size == this._buffer_size || !(this.heap[0] < this._buffer_min);
+    }
+
+    /**
+     * Merge the buffered elements into the heap.
+     */
+    private void _flush()
+    {
+        int n = this._size;
+        int k = this._buffer_size;
+        this._buffer_size = 0;
+
+        // a heapify costs O(n), while a sift-up usually stops after a level or two,
+        // so only heapify when the buffer is at least as large as the heap
+        if (k >= n - k)
+        {
+            _heapify(this.heap, 0, n);
+            return;
+        }
+
+        final KType [] h = this.heap;
+        for (int i=n-k;i<n;i++)
+        {
+            KType e = h[i];
+            int c = i;
+            while (c > 0)
+            {
+                int p = (c-1) >> 1;
+                KType p_e = h[p];
+                if (p_e <= e)
+                    break;
+                h[c] = p_e;
+                c = p;
+            }
+            h[c] = e;
+        }
+        return;
+    }
+
+    /**
+     * Sift the element at position p down the subtree rooted at p.  The heap is
+     * limited to the first n elements of h.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _siftDown(KType [] h, int p, int n)
+    {
+        KType h_p = h[p];
+        int c;
+        while ((c = p+p+1) < n)
+        {
+            // pick the lighter child
+            KType h_c = h[c];
+            if (c+1 < n)
+            {
+                KType h_d = h[c+1];
+                if (h_d < h_c)
+                {
+                    h_c = h_d;
+                    c++;
+                }
+            }
+            if (h_p <= h_c)
+                break;
+            h[p] = h_c;
+            p = c;
+        }
+        h[p] = h_p;
+        return;
+    }
+
+    /**
+     * Number of elements in the subtree rooted at r, in a heap of n elements.
+     */
+    static long _subtreeSize(int r, int n)
+    {
+        long total = 0;
+        long first = r, width = 1;
+        while (first < n)
+        {
+            total += Math.min(width, n-first);
+            first = first+first+1;
+            width <<= 1;
+        }
+        return total;
+    }
+
+    /**
+     * Serially heapify the subtree rooted at r with Floyd's bottom-up method, deepest level first.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _heapify(KType [] h, int r, int n)
+    {
+        // find the deepest level, then work up:  the level above the one starting at
+        // first starts at (first-1)/2, and is half as wide
+        long first = r, width = 1;
+        while (first+first+1 < n)
+        {
+            first = first+first+1;
+            width <<= 1;
+        }
+        while (true)
+        {
+            int lo = (int) first;
+            int hi = (int) Math.min(first+width, n);
+            for (int i=hi-1;i>=lo;i--)
+                _siftDown(h, i, n);
+            if (first == r)
+                break;
+            first = (first-1) >> 1;
+            width >>= 1;
+        }
+        return;
+    }
+
+    /**
+     * Fork/join task heapifying the subtree rooted at r:  both child subtrees are
+     * heapified in parallel, then r is sifted down.
+     */
+    @SuppressWarnings("serial")
+    static final class _Heapify/* #if ($TemplateOptions.KTypeGeneric) */<KType>/* #end */
+        extends RecursiveAction
+    {
+        final KType [] h;
+        final int r, n;
+
+        _Heapify(KType [] h, int r, int n)
+        {
+            this.h = h;
+            this.r = r;
+            this.n = n;
+            return;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (_subtreeSize(r, n) <= PARALLEL_THRESHOLD)
+            {
+                _heapify(h, r, n);
+                return;
+            }
+            invokeAll(new _Heapify<KType>(h, r+r+1, n),
+                      new _Heapify<KType>(h, r+r+2, n));
+            _siftDown(h, r, n);
+            return;
+        }
+    }
+
+    /**
+     * Fork/join task visiting h[lo..hi):  ranges above the threshold are split in halves.
+     */
+    @SuppressWarnings("serial")
+    static final class _ForEach/* #if ($TemplateOptions.KTypeGeneric) */<KType>/* #end */
+        extends RecursiveAction
+    {
+        final KType [] h;
+        final int lo, hi;
+        final KTypeProcedure<? super KType> procedure;
+
+        _ForEach(KType [] h, int lo, int hi, KTypeProcedure<? super KType> procedure)
+        {
+            this.h = h;
+            this.lo = lo;
+            this.hi = hi;
+            this.procedure = procedure;
+            return;
+        }
+
+        @Override
+        protected void compute()
+        {
+            if (hi - lo <= PARALLEL_THRESHOLD)
+            {
+                final KType [] h = this.h;
+                final KTypeProcedure<? super KType> procedure = this.procedure;
+                for (int i=lo;i<hi;i++)
+                    procedure.apply(h[i]);
+                return;
+            }
+            int mid = (lo + hi) >>> 1;
+            invokeAll(new _ForEach<KType>(h, lo, mid, procedure),
+                      new _ForEach<KType>(h, mid, hi, procedure));
+            return;
+        }
+    }
+
     public void expand()
     {
         this.allocateBuffers(HashContainerUtils.nextCapacity(this.heap.length));
@@ -0,0 +1,120 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.Iterator;
+
+import com.carrotsearch.hppc.cursors.KTypeCursor;
+import com.carrotsearch.hppc.procedures.KTypeProcedure;
+
+/**
+ * An immutable copy of the contents of a {@link KTypeHeap}, published by the heap's
+ * writer for readers on other threads.  See {@link KTypeHeap#snapshots}.
+ *
+ * The copy is always in heap order, even if the heap had buffered elements.  All
+ * methods are safe to call from any number of threads.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public final class KTypeHeapSnapshot<KType>
+{
+    /**
+     * The elements, in heap order.  Must not be modified.
+     */
+    final KType [] heap;
+
+    final int size;
+
+    KTypeHeapSnapshot(KTypeHeap<KType> h)
+    {
+        int n = h._size;
+        KType [] copy = Intrinsics.newKTypeArray(n);
+        System.arraycopy(h.heap, 0, copy, 0, n);
+        if (h._buffer_size != 0)
+            KTypeHeap._heapify(copy, 0, n);
+        this.heap = copy;
+        this.size = n;
+        return;
+    }
+
+    /**
+     * Return the smallest element.
+     */
+    public KType peek()
+    {
+        assert this.size > 0;
+        return this.heap[0];
+    }
+
+    public int size()
+    {
+        return this.size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this.size == 0;
+    }
+
+    /**
+     * Visit the elements in unsorted order.
+     */
+    public <T extends KTypeProcedure<? super KType>> T forEach(T procedure)
+    {
+        final KType [] h = this.heap;
+        int n = this.size;
+        for (int i=0;i<n;i++)
+            procedure.apply(h[i]);
+        return procedure;
+    }
+
+    /**
+     * Iterate over the elements in ascending order.  The iterator pops from a private copy of
+     * the heap, so taking the first k elements costs O(n + k log n).
+     */
+    public Iterator<KTypeCursor<KType>> sortedIterator()
+    {
+        return new _SortedIterator/* #if ($TemplateOptions.KTypeGeneric) */<KType>/* #end */(this);
+    }
+
+    static final class _SortedIterator/* #if ($TemplateOptions.KTypeGeneric) */<KType>/* #end */
+        extends AbstractIterator<KTypeCursor<KType>>
+    {
+        final KTypeHeap<KType> heap;
+        final KTypeCursor<KType> cursor;
+
+        _SortedIterator(KTypeHeapSnapshot<KType> s)
+        {
+            this.heap = new KTypeHeap<KType>(s.size);
+            System.arraycopy(s.heap, 0, this.heap.heap, 0, s.size);
+            this.heap._size = s.size;
+            this.cursor = new KTypeCursor<KType>();
+            this.cursor.index = -1;
+            return;
+        }
+
+        @Override
+        protected KTypeCursor<KType> fetch()
+        {
+            if (this.heap._size == 0)
+                return this.done();
+            this.cursor.index++;
+            this.cursor.value = this.heap.pop();
+            return this.cursor;
+        }
+    }
+}
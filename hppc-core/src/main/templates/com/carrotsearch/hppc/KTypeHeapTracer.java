@@ -0,0 +1,35 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+/**
+ * Receives the operations on a heap of <code>KType</code>s, when set as the tracer of a
+ * {@link KTypeHeap} or {@link KTypeIndirectHeap}.  Op codes are those of
+ * {@link HeapTrace}, which records them to a file.
+ */
+public interface KTypeHeapTracer<KType>
+{
+    /**
+     * An operation without an argument (pop or clear).
+     */
+    public void trace(int op);
+
+    /**
+     * An operation with an argument (add, push_pop or pop_push).
+     */
+    public void trace(int op, KType key);
+}
@@ -56,6 +56,24 @@ public class KTypeIndirectHeap<KType>
      */
     public int _size;
 
+    /**
+     * Use bottom-up sift-down in pop(), pop_push() and push_pop().
+     *
+     * The hole left at the root is walked down the path of smaller children to a leaf with
+     * one comparison per level, then the displaced element is sifted back up from there.
+     * It usually ends near the bottom, so this takes about half the comparisons of the
+     * default top-down sift, at the cost of a few more moves.
+     */
+    public boolean bottom_up = false;
+
+    /**
+     * If set, receives every add(), pop(), push_pop(), pop_push() and clear() before it
+     * runs.  The keys are element indices, not priorities, so a {@link HeapTrace}
+     * recording them needs the {@link HeapTrace#INDEX} key type unless the comparator is
+     * the natural order of the indices.
+     */
+    public KTypeHeapTracer<KType> tracer;
+
     /**
      * How to compare integers
      */
@@ -107,6 +125,8 @@ public class KTypeIndirectHeap<KType>
     //@Override
     public boolean add(KType e)
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.ADD, e);
         int n = this._size;
 
         assert n <= this.heap.length;
@@ -126,12 +146,11 @@ public class KTypeIndirectHeap<KType>
         }
 
         // Use the following algorithm to add elements to the heap:
-        //  Put new element at the bottom of the heap.
-        //  Swap the new element and its parent up the tree, until
-        //    the new element has an element heavier than its parent
-        //    or the top of the tree is reached.
-
-        this.heap[n] = e;
+        //  Start with a hole at the bottom of the heap.
+        //  Move the hole up the tree by pulling each heavier parent down
+        //    into it, until the new element is no lighter than the parent
+        //    or the top of the tree is reached, and store the new element
+        //    in the hole.
 
         while(n > 0)
         {
@@ -140,13 +159,14 @@ public class KTypeIndirectHeap<KType>
 
             // if parent is smaller than us, then heap is ok
             KType p_e = this.heap[p];
-            if (this.comp.compare(p_e, e) < 0)
+            if (this.comp.compare(p_e, e) <= 0)
                 break;
 
-            this.heap[p] = e;
+            // move the parent down into the hole
             this.heap[n] = p_e;
             n = p;
         }
+        this.heap[n] = e;
         this._size++;
         return true;
     }
@@ -213,6 +233,8 @@ public class KTypeIndirectHeap<KType>
      */
     public KType pop()
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.POP);
         int n = this._size;
         int nm1 = n-1;
         assert n > 0;
@@ -226,10 +248,13 @@ public class KTypeIndirectHeap<KType>
         // child elements of i : (i << 1) + 1, (i << 1) + 2
 
         KType result = this.heap[0];
-        this.heap[0] = this.heap[nm1];
-        /* #if ($TemplateOptions.KTypeGeneric) */ this.heap[nm1] = null; /* #end */
-        this._relax();
         this._size = nm1;
+        if (nm1 > 0)
+        {
+            this.heap[0] = this.heap[nm1];
+            this._relax();
+        }
+        /* #if ($TemplateOptions.KTypeGeneric) */ this.heap[nm1] = null; /* #end */
         return result;
     }
 
@@ -237,6 +262,12 @@ public class KTypeIndirectHeap<KType>
     {
         // This method fixes a heap which is OK except for possibly the root element.
 
+        if (this.bottom_up)
+        {
+            this._relax_bottom_up();
+            return;
+        }
+
         int n = this._size;
         int p = 0;
         KType h_p = this.heap[0];
@@ -301,6 +332,46 @@ public class KTypeIndirectHeap<KType>
         return;
     }
 
+    private void _relax_bottom_up()
+    {
+        // Bottom-up variant of _relax(), see bottom_up.
+
+        final KType [] h = this.heap;
+        int n = this._size;
+        int p = 0, c;
+        KType h_p = h[0];
+
+        // walk the hole down to a leaf, pulling up the smaller child at each level
+        while ((c = p+p+1) < n)
+        {
+            KType h_c = h[c];
+            if (c+1 < n)
+            {
+                KType h_d = h[c+1];
+                if (this.comp.compare(h_d, h_c) < 0)
+                {
+                    h_c = h_d;
+                    c++;
+                }
+            }
+            h[p] = h_c;
+            p = c;
+        }
+
+        // sift the displaced element back up from the leaf
+        while (p > 0)
+        {
+            int q = (p-1) >> 1;
+            KType h_q = h[q];
+            if (this.comp.compare(h_q, h_p) <= 0)
+                break;
+            h[p] = h_q;
+            p = q;
+        }
+        h[p] = h_p;
+        return;
+    }
+
     /**
      * Push the given value, then pop a value.
      *
@@ -308,6 +379,8 @@ public class KTypeIndirectHeap<KType>
      */
     public KType push_pop(KType e)
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.PUSH_POP, e);
         if (this._size == 0)
             return e;
         KType result = this.heap[0];
@@ -325,6 +398,8 @@ public class KTypeIndirectHeap<KType>
      */
     public KType pop_push(KType e)
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.POP_PUSH, e);
         assert this._size > 0;
         KType result = this.heap[0];
         this.heap[0] = e;
@@ -354,10 +429,90 @@ public class KTypeIndirectHeap<KType>
     @Override
     public void clear()
     {
+        if (this.tracer != null)
+            this.tracer.trace(HeapTrace.CLEAR);
         this._size = 0;
         return;
     }
 
+    /**
+     * Replace every element e with f.apply(e), in one pass over the array.
+     *
+     * If monotone is set, f must preserve the order of the comparator, and the heap is left
+     * as it is.  Otherwise it is rebuilt in O(n).  With assertions enabled the heap order
+     * is checked afterwards, which catches a function wrongly declared monotone.
+     *
+     * A tracer sees a clear() followed by an add() of each new element.
+     */
+    public void transformAll(KTypeUnaryOperator<KType> f, boolean monotone)
+    {
+        final KType [] h = this.heap;
+        final int n = this._size;
+        for (int i=0;i<n;i++)
+            h[i] = f.apply(h[i]);
+
+        if (!monotone)
+        {
+            for (int i=(n >> 1)-1;i>=0;i--)
+                this._siftDown(i);
+        }
+        assert this._isHeap() : "Heap order broken; is the function really monotone?";
+
+        if (this.tracer != null)
+        {
+            this.tracer.trace(HeapTrace.CLEAR);
+            for (int i=0;i<n;i++)
+                this.tracer.trace(HeapTrace.ADD, h[i]);
+        }
+        return;
+    }
+
+    /**
+     * Sift the element at position p down the subtree rooted at p.
+     */
+    private void _siftDown(int p)
+    {
+        final KType [] h = this.heap;
+        final int n = this._size;
+        KType h_p = h[p];
+        int c;
+        while ((c = p+p+1) < n)
+        {
+            // pick the lighter child
+            KType h_c = h[c];
+            if (c+1 < n)
+            {
+                KType h_d = h[c+1];
+                if (this.comp.compare(h_d, h_c) < 0)
+                {
+                    h_c = h_d;
+                    c++;
+                }
+            }
+            if (this.comp.compare(h_p, h_c) <= 0)
+                break;
+            h[p] = h_c;
+            p = c;
+        }
+        h[p] = h_p;
+        return;
+    }
+
+    /**
+     * Check the heap order.
+     */
+    boolean _isHeap()
+    {
+        final KType [] h = this.heap;
+        int n = this._size;
+        for (int i=1;i<n;i++)
+        {
+            if (this.comp.compare(h[i], h[(i-1) >> 1]) < 0)
+                return false;
+        }
+        return true;
+    }
+
     //@Override
     public int removeAll(KTypeContainer<? extends KType> container)
     {
@@ -0,0 +1,126 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Parallel top-K selection over arrays of <code>KType</code>s, using built-in comparison.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public final class KTypeParallelSelect
+{
+    /**
+     * Ranges with fewer elements than this (or four times k, whichever is larger) are
+     * scanned serially by a single task.
+     */
+    public final static int CHUNK_SIZE = 1 << 16;
+
+    private KTypeParallelSelect()
+    {
+        return;
+    }
+
+    /**
+     * Return the k largest elements of data, largest first.
+     *
+     * The array is split into chunks on the common {@link ForkJoinPool}.  Each chunk is
+     * scanned into a bounded min-heap of size k with {@link KTypeHeap#push_pop}, and the
+     * bounded heaps are merged pairwise as the tasks complete.  The input is not modified.
+     */
+    public static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      KType [] topK(KType [] data, int k)
+    {
+        k = Math.min(k, data.length);
+        if (k <= 0)
+            return Intrinsics.newKTypeArray(0);
+
+        KTypeHeap<KType> h = ForkJoinPool.commonPool().invoke(
+            new _TopK<KType>(data, 0, data.length, k));
+
+        KType [] result = Intrinsics.newKTypeArray(h._size);
+        for (int i=result.length-1;i>=0;i--)
+            result[i] = h.pop();
+        return result;
+    }
+
+    /**
+     * Fork/join task selecting the k largest elements of data[lo..hi) into a bounded heap.
+     */
+    @SuppressWarnings("serial")
+    static final class _TopK/* #if ($TemplateOptions.KTypeGeneric) */<KType>/* #end */
+        extends RecursiveTask<KTypeHeap<KType>>
+    {
+        final KType [] data;
+        final int lo, hi, k;
+
+        _TopK(KType [] data, int lo, int hi, int k)
+        {
+            this.data = data;
+            this.lo = lo;
+            this.hi = hi;
+            this.k = k;
+            return;
+        }
+
+        @Override
+        protected KTypeHeap<KType> compute()
+        {
+            if (hi - lo <= Math.max(CHUNK_SIZE, k << 2))
+            {
+                KTypeHeap<KType> h = new KTypeHeap<KType>(k);
+                for (int i=lo;i<hi;i++)
+                    _offer(h, data[i], k);
+                return h;
+            }
+
+            int mid = (lo + hi) >>> 1;
+            _TopK<KType> left = new _TopK<KType>(data, lo, mid, k);
+            _TopK<KType> right = new _TopK<KType>(data, mid, hi, k);
+            right.fork();
+            KTypeHeap<KType> a = left.compute();
+            KTypeHeap<KType> b = right.join();
+
+            // merge the smaller heap into the larger one
+            if (a._size < b._size)
+            {
+                KTypeHeap<KType> t = a;
+                a = b;
+                b = t;
+            }
+            final KType [] bh = b.heap;
+            for (int i=0;i<b._size;i++)
+                _offer(a, bh[i], k);
+            return a;
+        }
+    }
+
+    /**
+     * Offer e to a heap bounded to k elements, displacing the smallest element if full.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _offer(KTypeHeap<KType> h, KType e, int k)
+    {
+        if (h._size < k)
+            h.add(e);
+        else
+            h.push_pop(e);
+        return;
+    }
+}
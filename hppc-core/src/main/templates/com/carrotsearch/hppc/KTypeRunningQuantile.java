@@ -0,0 +1,408 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+/**
+ * Streaming quantile of <code>KType</code>s, using built-in comparison.
+ *
+ * The elements are split between a max-heap of the lower part and a min-heap of the
+ * upper part, rebalanced after every change so that the top of the lower heap is the
+ * element of rank ceil(quantile * size()) (the nearest-rank definition; the lower median
+ * for a quantile of 0.5).  Both heaps are written out here so the max-heap doesn't need a
+ * comparator.  add() and removeOldest() are O(log n), quantile() is O(1).
+ *
+ * Elements can be removed in insertion order, either explicitly with removeOldest() or
+ * automatically by giving a window size.  To make that O(log n), every element records
+ * its current heap position in a ring buffer indexed by insertion order, and the heaps
+ * record each element's slot in that ring.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public class KTypeRunningQuantile<KType>
+{
+    /**
+     * Default capacity.  Borrowed from HashContainerUtils.
+     */
+    public final static int DEFAULT_CAPACITY = HashContainerUtils.DEFAULT_CAPACITY;
+
+    /**
+     * The quantile tracked, in [0, 1].
+     */
+    public final double quantile;
+
+    /**
+     * The maximum number of elements kept, or 0 for no limit.
+     */
+    public final int window;
+
+    /**
+     * The lower part of the elements, as a max-heap.
+     */
+    public KType [] lower;
+
+    /**
+     * Ring slot of each element of lower.
+     */
+    public int [] lower_slots;
+
+    public int lower_size;
+
+    /**
+     * The upper part of the elements, as a min-heap.
+     */
+    public KType [] upper;
+
+    /**
+     * Ring slot of each element of upper.
+     */
+    public int [] upper_slots;
+
+    public int upper_size;
+
+    /**
+     * Heap position of each element, in insertion order starting at head:  i for lower[i],
+     * or ~i for upper[i].  The length is a power of two.
+     */
+    public int [] where;
+
+    /**
+     * Ring slot of the oldest element.
+     */
+    public int head;
+
+    /**
+     * The number of elements in both heaps.
+     */
+    public int _size;
+
+    /**
+     * Track the given quantile over all elements added.
+     */
+    public KTypeRunningQuantile(double quantile)
+    {
+        this(quantile, 0);
+        return;
+    }
+
+    /**
+     * Track the given quantile over the last window elements added, or over all of them if
+     * window is 0.
+     */
+    public KTypeRunningQuantile(double quantile, int window)
+    {
+        if (!(quantile >= 0 && quantile <= 1))
+            throw new IllegalArgumentException("Quantile must be between 0 and 1: " + quantile);
+        if (window < 0)
+            throw new IllegalArgumentException("Window must not be negative: " + window);
+
+        this.quantile = quantile;
+        this.window = window;
+        this.allocateBuffers(HashContainerUtils.roundCapacity(window > 0 ? window : DEFAULT_CAPACITY));
+        return;
+    }
+
+    /**
+     * Add an element.  If the window is full, the oldest element is removed first.
+     */
+    public void add(KType e)
+    {
+        if (this.window > 0 && this._size == this.window)
+            this.removeOldest();
+        if (this._size == this.where.length)
+            this.expand();
+
+        int slot = (this.head + this._size) & (this.where.length - 1);
+        this._size++;
+        if (this.lower_size == 0 || e <= this.lower[0])
+            this._lower_add(e, slot);
+        else
+            this._upper_add(e, slot);
+        this._rebalance();
+        return;
+    }
+
+    /**
+     * Remove and return the oldest element.
+     */
+    public KType removeOldest()
+    {
+        assert this._size > 0;
+
+        int w = this.where[this.head];
+        KType e;
+        if (w >= 0)
+        {
+            e = this.lower[w];
+            this._lower_remove(w);
+        }
+        else
+        {
+            e = this.upper[~w];
+            this._upper_remove(~w);
+        }
+        this.head = (this.head + 1) & (this.where.length - 1);
+        this._size--;
+        this._rebalance();
+        return e;
+    }
+
+    /**
+     * Return the current quantile:  the element of rank ceil(quantile * size()), counting
+     * from 1 (the smallest element if that is 0).
+     */
+    public KType quantile()
+    {
+        assert this._size > 0;
+        return this.lower[0];
+    }
+
+    public int size()
+    {
+        return this._size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    public void clear()
+    {
+        this.lower_size = 0;
+        this.upper_size = 0;
+        this.head = 0;
+        this._size = 0;
+        return;
+    }
+
+    /**
+     * Move elements between the heaps until the lower heap holds the target rank.
+     */
+    private void _rebalance()
+    {
+        int n = this._size;
+        int target = 0;
+        if (n > 0)
+        {
+            // the factor absorbs rounding in quantile * n when the product is an integer
+            target = (int) Math.ceil(this.quantile * n * (1 - 1e-12));
+            target = Math.min(Math.max(target, 1), n);
+        }
+
+        while (this.lower_size > target)
+        {
+            KType e = this.lower[0];
+            int slot = this.lower_slots[0];
+            this._lower_remove(0);
+            this._upper_add(e, slot);
+        }
+        while (this.lower_size < target)
+        {
+            KType e = this.upper[0];
+            int slot = this.upper_slots[0];
+            this._upper_remove(0);
+            this._lower_add(e, slot);
+        }
+        return;
+    }
+
+    private void _lower_add(KType e, int slot)
+    {
+        this._lower_up(this.lower_size++, e, slot);
+        return;
+    }
+
+    private void _upper_add(KType e, int slot)
+    {
+        this._upper_up(this.upper_size++, e, slot);
+        return;
+    }
+
+    /**
+     * Remove lower[i], filling the hole with the last element.
+     */
+    private void _lower_remove(int i)
+    {
+        int last = --this.lower_size;
+        if (i == last)
+            return;
+        KType e = this.lower[last];
+        int slot = this.lower_slots[last];
+        if (i > 0 && this.lower[(i-1) >> 1] < e)
+            this._lower_up(i, e, slot);
+        else
+            this._lower_down(i, e, slot);
+        return;
+    }
+
+    /**
+     * Remove upper[i], filling the hole with the last element.
+     */
+    private void _upper_remove(int i)
+    {
+        int last = --this.upper_size;
+        if (i == last)
+            return;
+        KType e = this.upper[last];
+        int slot = this.upper_slots[last];
+        if (i > 0 && e < this.upper[(i-1) >> 1])
+            this._upper_up(i, e, slot);
+        else
+            this._upper_down(i, e, slot);
+        return;
+    }
+
+    /**
+     * Sift e up the max-heap from the hole at i.
+     */
+    private void _lower_up(int i, KType e, int slot)
+    {
+        final KType [] h = this.lower;
+        final int [] s = this.lower_slots;
+        while (i > 0)
+        {
+            int p = (i-1) >> 1;
+            if (e <= h[p])
+                break;
+            h[i] = h[p];
+            s[i] = s[p];
+            this.where[s[i]] = i;
+            i = p;
+        }
+        h[i] = e;
+        s[i] = slot;
+        this.where[slot] = i;
+        return;
+    }
+
+    /**
+     * Sift e down the max-heap from the hole at i.
+     */
+    private void _lower_down(int i, KType e, int slot)
+    {
+        final KType [] h = this.lower;
+        final int [] s = this.lower_slots;
+        int n = this.lower_size;
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            if (c+1 < n && h[c] < h[c+1])
+                c++;
+            if (h[c] <= e)
+                break;
+            h[i] = h[c];
+            s[i] = s[c];
+            this.where[s[i]] = i;
+            i = c;
+        }
+        h[i] = e;
+        s[i] = slot;
+        this.where[slot] = i;
+        return;
+    }
+
+    /**
+     * Sift e up the min-heap from the hole at i.
+     */
+    private void _upper_up(int i, KType e, int slot)
+    {
+        final KType [] h = this.upper;
+        final int [] s = this.upper_slots;
+        while (i > 0)
+        {
+            int p = (i-1) >> 1;
+            if (h[p] <= e)
+                break;
+            h[i] = h[p];
+            s[i] = s[p];
+            this.where[s[i]] = ~i;
+            i = p;
+        }
+        h[i] = e;
+        s[i] = slot;
+        this.where[slot] = ~i;
+        return;
+    }
+
+    /**
+     * Sift e down the min-heap from the hole at i.
+     */
+    private void _upper_down(int i, KType e, int slot)
+    {
+        final KType [] h = this.upper;
+        final int [] s = this.upper_slots;
+        int n = this.upper_size;
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            if (c+1 < n && h[c+1] < h[c])
+                c++;
+            if (e <= h[c])
+                break;
+            h[i] = h[c];
+            s[i] = s[c];
+            this.where[s[i]] = ~i;
+            i = c;
+        }
+        h[i] = e;
+        s[i] = slot;
+        this.where[slot] = ~i;
+        return;
+    }
+
+    public void expand()
+    {
+        this.allocateBuffers(HashContainerUtils.nextCapacity(this.where.length));
+        return;
+    }
+
+    /**
+     * Resize all buffers.  The ring is unrolled to start at slot 0, so the slots recorded
+     * in the heaps are renumbered.
+     */
+    public void allocateBuffers(int capacity)
+    {
+        assert capacity >= this._size;
+
+        KType [] new_lower = Intrinsics.newKTypeArray(capacity);
+        KType [] new_upper = Intrinsics.newKTypeArray(capacity);
+        int [] new_lower_slots = new int[capacity];
+        int [] new_upper_slots = new int[capacity];
+        int [] new_where = new int[capacity];
+
+        if (this.where != null)
+        {
+            int mask = this.where.length - 1;
+            System.arraycopy(this.lower, 0, new_lower, 0, this.lower_size);
+            System.arraycopy(this.upper, 0, new_upper, 0, this.upper_size);
+            for (int i=0;i<this.lower_size;i++)
+                new_lower_slots[i] = (this.lower_slots[i] - this.head) & mask;
+            for (int i=0;i<this.upper_size;i++)
+                new_upper_slots[i] = (this.upper_slots[i] - this.head) & mask;
+            for (int i=0;i<this._size;i++)
+                new_where[i] = this.where[(this.head + i) & mask];
+        }
+
+        this.lower = new_lower;
+        this.upper = new_upper;
+        this.lower_slots = new_lower_slots;
+        this.upper_slots = new_upper_slots;
+        this.where = new_where;
+        this.head = 0;
+        return;
+    }
+}
@@ -0,0 +1,401 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import com.carrotsearch.hppc.predicates.KTypePredicate;
+import com.carrotsearch.hppc.procedures.KTypeProcedure;
+
+/**
+ * A min-heap of <code>KType</code>s, using built-in comparison, stored in fixed-size
+ * chunks instead of one array.
+ *
+ * {@link KTypeHeap#expand()} copies the whole heap into a new array, which for a large
+ * heap is a long pause on a single add(), and needs the old and new arrays at once.  Here
+ * the heap grows by appending a chunk of (1 &lt;&lt; {@link #chunk_shift}) elements, and
+ * nothing is copied but the (small) array of chunk references.  Element i is at
+ * <code>chunks[i &gt;&gt;&gt; chunk_shift][i &amp; chunk_mask]</code>, with a long index,
+ * so the heap can hold more than Integer.MAX_VALUE elements.
+ *
+ * Index 0 is unused and the root is at index 1, so the two children 2i and 2i+1 of an
+ * element are always in the same chunk.  A sift then looks up one chunk per level, and
+ * keeps the chunk of the hole from the previous level.  The levels which fit in the first
+ * chunk are sifted with plain int indices into it, which is the same loop as
+ * {@link KTypeHeap}'s once the JIT has hoisted the chunk load.  With the default chunk of
+ * a million elements that covers the top 20 levels.
+ *
+ * This is not an {@link KTypeCollection}, since its size is a long.  Chunks stay
+ * allocated after pop() and clear(); see {@link #trim()}.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public class KTypeSegmentedHeap<KType>
+{
+    /**
+     * Experimental!
+     */
+    public static boolean experimental_warning = true;
+
+    /**
+     * Default log2 of the chunk size in elements.
+     */
+    public final static int DEFAULT_CHUNK_SHIFT = 20;
+
+    /**
+     * The chunks; only the first chunks_used are allocated.
+     */
+    public KType [][] chunks;
+
+    public int chunks_used;
+
+    /**
+     * The number of heap elements in use; they occupy indices 1 to _size.
+     */
+    public long _size;
+
+    /**
+     * log2 of the chunk size.
+     */
+    public final int chunk_shift;
+
+    /**
+     * Number of elements in a chunk.
+     */
+    public final int chunk_size;
+
+    /**
+     * chunk_size - 1.
+     */
+    public final int chunk_mask;
+
+    /**
+     * Create a heap with the default chunk size.
+     */
+    public KTypeSegmentedHeap()
+    {
+        this(DEFAULT_CHUNK_SHIFT);
+        return;
+    }
+
+    /**
+     * Create a heap with chunks of (1 &lt;&lt; chunkShift) elements.
+     */
+    public KTypeSegmentedHeap(int chunkShift)
+    {
+        if (chunkShift < 2 || chunkShift > 30)
+            throw new IllegalArgumentException("Chunk shift must be between 2 and 30: " + chunkShift);
+
+        this.chunk_shift = chunkShift;
+        this.chunk_size = 1 << chunkShift;
+        this.chunk_mask = this.chunk_size - 1;
+
+        if (experimental_warning)
+        {
+            System.err.println("hppc:  Heap classes are still considered experimental, use at own risk.  Set "+KTypeSegmentedHeap.class+".experimental_warning = false to suppress this message.");
+            experimental_warning = false;
+        }
+
+        this.chunks = _newChunks(8);
+        this.chunks[0] = Intrinsics.newKTypeArray(this.chunk_size);
+        this.chunks_used = 1;
+        return;
+    }
+
+    /**
+     * Add an element to the heap.
+     */
+    public void add(KType e)
+    {
+        long u = this._size + 1;
+
+        if ((u >>> this.chunk_shift) == this.chunks_used)
+            this._appendChunk();
+
+        // sift the hole up from the end of the heap, in the upper chunks
+        final KType [][] c = this.chunks;
+        final int shift = this.chunk_shift;
+        final int mask = this.chunk_mask;
+        KType [] cu = c[(int) (u >>> shift)];
+        while (u > mask)
+        {
+            long p = u >>> 1;
+            KType [] cp = c[(int) (p >>> shift)];
+            KType p_e = cp[(int) p & mask];
+            if (p_e <= e)
+            {
+                cu[(int) u & mask] = e;
+                this._size++;
+                return;
+            }
+            cu[(int) u & mask] = p_e;
+            u = p;
+            cu = cp;
+        }
+
+        // the rest is in the first chunk
+        final KType [] h = cu;
+        int i = (int) u;
+        while (i > 1)
+        {
+            int p = i >>> 1;
+            KType p_e = h[p];
+            if (p_e <= e)
+                break;
+            h[i] = p_e;
+            i = p;
+        }
+        h[i] = e;
+        this._size++;
+        return;
+    }
+
+    /**
+     * Remove and return the topmost element from the heap.
+     *
+     * @return The smallest element in the heap.
+     */
+    public KType pop()
+    {
+        long n = this._size;
+        assert n > 0;
+
+        final KType [] c0 = this.chunks[0];
+        KType result = c0[1];
+        KType [] cn = this.chunks[(int) (n >>> this.chunk_shift)];
+        int last = (int) n & this.chunk_mask;
+        KType e = cn[last];
+        /* #if ($TemplateOptions.KTypeGeneric) */ cn[last] = null; /* #end */
+        this._size = n-1;
+        if (n > 1)
+            this._relax(e);
+        return result;
+    }
+
+    /**
+     * Put e at the root, which is a hole, and sift it down.
+     */
+    private void _relax(KType e)
+    {
+        final long n = this._size;
+        final int mask = this.chunk_mask;
+        final KType [] h = this.chunks[0];
+
+        // the top levels, in the first chunk; the loop ends at a leaf or the chunk boundary
+        final int m = (int) Math.min(n, mask);
+        int i = 1;
+        int c;
+        while ((c = i+i) <= m)
+        {
+            // c is even and mask is odd, so c+1 is in the first chunk too
+            KType h_c = h[c];
+            if (c < m)
+            {
+                KType h_d = h[c+1];
+                if (h_d < h_c)
+                {
+                    h_c = h_d;
+                    c++;
+                }
+            }
+            if (e <= h_c)
+            {
+                h[i] = e;
+                return;
+            }
+            h[i] = h_c;
+            i = c;
+        }
+        if ((long) i+i > n)
+        {
+            h[i] = e;
+            return;
+        }
+
+        // the lower levels, one chunk lookup per level
+        final KType [][] chunks = this.chunks;
+        final int shift = this.chunk_shift;
+        KType [] hu = h;
+        long u = i;
+        long a;
+        while ((a = u+u) <= n)
+        {
+            KType [] ha = chunks[(int) (a >>> shift)];
+            int ai = (int) a & mask;
+            KType h_a = ha[ai];
+            if (a < n)
+            {
+                KType h_b = ha[ai+1];
+                if (h_b < h_a)
+                {
+                    h_a = h_b;
+                    ai++;
+                    a++;
+                }
+            }
+            if (e <= h_a)
+                break;
+            hu[(int) u & mask] = h_a;
+            u = a;
+            hu = ha;
+        }
+        hu[(int) u & mask] = e;
+        return;
+    }
+
+    /**
+     * Push the given value, then pop a value.
+     *
+     * Much more efficient than a call to push() followed by a call to pop().
+     */
+    public KType push_pop(KType e)
+    {
+        if (this._size == 0)
+            return e;
+        KType result = this.chunks[0][1];
+        if (e <= result)
+            return e;
+        this._relax(e);
+        return result;
+    }
+
+    /**
+     * Pop a value, then push the given value.
+     *
+     * Much more efficient than a call to pop() followed by a call to push().
+     */
+    public KType pop_push(KType e)
+    {
+        assert this._size > 0;
+        KType result = this.chunks[0][1];
+        this._relax(e);
+        return result;
+    }
+
+    /**
+     * Return the topmost element in the heap.
+     */
+    public KType peek()
+    {
+        assert this._size > 0;
+        return this.chunks[0][1];
+    }
+
+    /**
+     * Check if the heap is empty.
+     *
+     * You should call this before peek(), pop(), or pop_push()
+     */
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    public long size()
+    {
+        return this._size;
+    }
+
+    /**
+     * Remove all elements.  The chunks are kept for reuse.
+     */
+    public void clear()
+    {
+        /* #if ($TemplateOptions.KTypeGeneric) */
+        for (int k=0;k<this.chunks_used;k++)
+            java.util.Arrays.fill(this.chunks[k], null);
+        /* #end */
+        this._size = 0;
+        return;
+    }
+
+    /**
+     * Release the chunks beyond the ones in use.
+     */
+    public void trim()
+    {
+        int used = (int) (this._size >>> this.chunk_shift) + 1;
+        for (int k=used;k<this.chunks_used;k++)
+            this.chunks[k] = null;
+        this.chunks_used = used;
+        return;
+    }
+
+    /**
+     * This function visits the elements in unsorted order.
+     */
+    public <T extends KTypeProcedure<? super KType>> T forEach(T procedure)
+    {
+        final long n = this._size;
+        for (int k=0;k<this.chunks_used;k++)
+        {
+            final KType [] h = this.chunks[k];
+            long base = (long) k << this.chunk_shift;
+            int from = (k == 0) ? 1 : 0;
+            int to = (int) Math.min(this.chunk_size, n - base + 1);
+            for (int i=from;i<to;i++)
+                procedure.apply(h[i]);
+        }
+        return procedure;
+    }
+
+    /**
+     * This function visits the elements in unsorted order, until the predicate returns false.
+     */
+    public <T extends KTypePredicate<? super KType>> T forEach(T predicate)
+    {
+        final long n = this._size;
+        for (int k=0;k<this.chunks_used;k++)
+        {
+            final KType [] h = this.chunks[k];
+            long base = (long) k << this.chunk_shift;
+            int from = (k == 0) ? 1 : 0;
+            int to = (int) Math.min(this.chunk_size, n - base + 1);
+            for (int i=from;i<to;i++)
+            {
+                if (!predicate.apply(h[i]))
+                    return predicate;
+            }
+        }
+        return predicate;
+    }
+
+    private void _appendChunk()
+    {
+        if (this.chunks_used == this.chunks.length)
+        {
+            if (this.chunks_used == Integer.MAX_VALUE)
+                throw new IllegalStateException("Heap is full.");
+            KType [][] new_chunks = _newChunks((int) Math.min(2L * this.chunks_used, Integer.MAX_VALUE));
+            System.arraycopy(this.chunks, 0, new_chunks, 0, this.chunks_used);
+            this.chunks = new_chunks;
+        }
+        if (this.chunks[this.chunks_used] == null)
+            this.chunks[this.chunks_used] = Intrinsics.newKTypeArray(this.chunk_size);
+        this.chunks_used++;
+        return;
+    }
+
+    private static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */ KType [][] _newChunks(int n)
+    {
+        /* #if ($TemplateOptions.KTypeGeneric) */
+        @SuppressWarnings("unchecked")
+        KType [][] chunks = (KType [][]) new Object [n][];
+        /* #else */
+        KType [][] chunks = new KType [n][];
+        /* #end */
+        return chunks;
+    }
+}
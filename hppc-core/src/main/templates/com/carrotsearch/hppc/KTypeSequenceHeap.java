@@ -0,0 +1,442 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+/**
+ * A min-priority queue of <code>KType</code>s, using built-in comparison, organized as a
+ * sequence heap after Peter Sanders, "Fast Priority Queues for Cached Memory".
+ *
+ * New elements go to a small insertion heap.  When that is full, it is sorted into a run
+ * (together with the deletion heap, below) and the run joins group 0.  Group i holds up
+ * to {@link #group_size} runs; when it overflows, all of its runs are merged k-way into
+ * one run in group i+1.  Elements are pulled from the fronts of the runs in batches into
+ * a small deletion heap, so that pop() normally only touches the two small heaps, and the
+ * large runs are read and written sequentially.  Both small heaps are {@link KTypeHeap}s.
+ *
+ * The runs are kept in a heap of their own, ordered by their first remaining element, so
+ * refilling the deletion heap costs O(log r) per element for r runs.
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public class KTypeSequenceHeap<KType>
+{
+    /**
+     * Default capacity of the insertion heap.
+     */
+    public final static int DEFAULT_INSERTION_SIZE = 1 << 10;
+
+    /**
+     * Default number of elements moved to the deletion heap at a time.
+     */
+    public final static int DEFAULT_DELETION_SIZE = 1 << 8;
+
+    /**
+     * Default number of runs in a group.
+     */
+    public final static int DEFAULT_GROUP_SIZE = 64;
+
+    /**
+     * New elements.
+     */
+    public KTypeHeap<KType> insertion;
+
+    /**
+     * The smallest elements of the runs.  Every element here is no larger than any element
+     * left in the runs.
+     */
+    public KTypeHeap<KType> deletion;
+
+    public final int insertion_size;
+    public final int deletion_size;
+    public final int group_size;
+
+    /**
+     * Sorted runs, by slot.  run_data[s][run_head[s] .. run_end[s]) are the remaining elements.
+     */
+    public KType [][] run_data;
+    public int [] run_head;
+    public int [] run_end;
+
+    /**
+     * Group of the run in each slot, or -1 for a free slot.
+     */
+    public int [] run_group;
+
+    /**
+     * Number of runs in each group.
+     */
+    public int [] group_runs;
+
+    /**
+     * Slots of the non-empty runs, as a min-heap ordered by first remaining element.
+     */
+    public int [] runs;
+    public int run_count;
+
+    /**
+     * First remaining element of each run in runs, so the heap of runs doesn't have to
+     * look it up for every comparison.
+     */
+    public KType [] run_keys;
+
+    /**
+     * The number of elements in the queue.
+     */
+    public int _size;
+
+    /**
+     * Create a sequence heap with the default parameters.
+     */
+    public KTypeSequenceHeap()
+    {
+        this(DEFAULT_INSERTION_SIZE, DEFAULT_DELETION_SIZE, DEFAULT_GROUP_SIZE);
+        return;
+    }
+
+    /**
+     * Create a sequence heap with an insertion heap of the given capacity, moving the given
+     * number of elements to the deletion heap at a time, and merging groups of the given
+     * number of runs.
+     */
+    public KTypeSequenceHeap(int insertionSize, int deletionSize, int groupSize)
+    {
+        if (insertionSize < 1 || deletionSize < 1 || groupSize < 2)
+            throw new IllegalArgumentException("Insertion and deletion sizes must be positive, group size at least 2.");
+
+        this.insertion_size = insertionSize;
+        this.deletion_size = deletionSize;
+        this.group_size = groupSize;
+        this.insertion = new KTypeHeap<KType>(insertionSize);
+        this.deletion = new KTypeHeap<KType>(deletionSize);
+        this.group_runs = new int[4];
+        this.allocateRuns(groupSize * 4);
+        return;
+    }
+
+    /**
+     * Add an element.
+     */
+    public void add(KType e)
+    {
+        if (this.insertion._size == this.insertion_size)
+            this._flushInsertion();
+        this.insertion.add(e);
+        this._size++;
+        return;
+    }
+
+    /**
+     * Remove and return the smallest element.
+     */
+    public KType pop()
+    {
+        assert this._size > 0;
+
+        if (this.deletion._size == 0 && this.run_count > 0)
+            this._refill();
+
+        this._size--;
+        if (this.deletion._size == 0)
+            return this.insertion.pop();
+        if (this.insertion._size == 0 || this.deletion.peek() <= this.insertion.peek())
+            return this.deletion.pop();
+        return this.insertion.pop();
+    }
+
+    /**
+     * Return the smallest element.
+     */
+    public KType peek()
+    {
+        assert this._size > 0;
+
+        if (this.deletion._size == 0 && this.run_count > 0)
+            this._refill();
+
+        if (this.deletion._size == 0)
+            return this.insertion.peek();
+        if (this.insertion._size == 0)
+            return this.deletion.peek();
+        KType d = this.deletion.peek();
+        KType i = this.insertion.peek();
+        return (d <= i) ? d : i;
+    }
+
+    public int size()
+    {
+        return this._size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    public void clear()
+    {
+        this.insertion.clear();
+        this.deletion.clear();
+        for (int s=0;s<this.run_group.length;s++)
+        {
+            this.run_data[s] = null;
+            this.run_group[s] = -1;
+        }
+        java.util.Arrays.fill(this.group_runs, 0);
+        this.run_count = 0;
+        this._size = 0;
+        return;
+    }
+
+    /**
+     * Move the next batch of smallest run elements to the deletion heap.  They arrive in
+     * ascending order, so each add() is O(1).
+     */
+    private void _refill()
+    {
+        final KTypeHeap<KType> d = this.deletion;
+        final KType [] keys = this.run_keys;
+        final int [] h = this.runs;
+        for (int i=0;i<this.deletion_size && this.run_count > 0;i++)
+        {
+            int s = h[0];
+            d.add(keys[0]);
+            int head = ++this.run_head[s];
+            if (head == this.run_end[s])
+            {
+                this._freeRun(s);
+                int last = --this.run_count;
+                if (last > 0)
+                    _runDown(keys, h, last, 0, keys[last], h[last]);
+            }
+            else
+            {
+                _runDown(keys, h, this.run_count, 0, this.run_data[s][head], s);
+            }
+        }
+        return;
+    }
+
+    /**
+     * Sort the insertion heap and the deletion heap into one run and add it to group 0.
+     */
+    private void _flushInsertion()
+    {
+        final KTypeHeap<KType> ins = this.insertion;
+        final KTypeHeap<KType> del = this.deletion;
+        int n = ins._size + del._size;
+        KType [] run = Intrinsics.newKTypeArray(n);
+
+        // merge the two heaps as they are drained
+        int i = 0;
+        while (ins._size > 0 && del._size > 0)
+            run[i++] = (del.peek() <= ins.peek()) ? del.pop() : ins.pop();
+        while (ins._size > 0)
+            run[i++] = ins.pop();
+        while (del._size > 0)
+            run[i++] = del.pop();
+
+        this._addRun(run, n, 0);
+        return;
+    }
+
+    /**
+     * Add a sorted run of n elements to group g, merging the group into group g+1 if full.
+     */
+    private void _addRun(KType [] run, int n, int g)
+    {
+        if (n == 0)
+            return;
+        if (g == this.group_runs.length)
+            this.group_runs = java.util.Arrays.copyOf(this.group_runs, g * 2);
+
+        if (this.group_runs[g] + 1 < this.group_size)
+        {
+            int s = this._allocRun(run, n, g);
+            _runUp(this.run_keys, this.runs, this.run_count++, run[0], s);
+            return;
+        }
+
+        // merge the group and the new run into one run for the next group
+        int total = n;
+        int [] merge = new int[this.group_runs[g] + 1];
+        int count = 0;
+        for (int s=0;s<this.run_group.length;s++)
+        {
+            if (this.run_group[s] == g)
+            {
+                total += this.run_end[s] - this.run_head[s];
+                merge[count++] = s;
+            }
+        }
+        merge[count++] = this._allocRun(run, n, g);
+
+        // k-way merge with a heap of the runs being merged
+        KType [] keys = Intrinsics.newKTypeArray(count);
+        for (int i=0;i<count;i++)
+            keys[i] = this.run_data[merge[i]][this.run_head[merge[i]]];
+        for (int i=count>>1;i>=0;i--)
+            _runDown(keys, merge, count, i, keys[i], merge[i]);
+
+        KType [] merged = Intrinsics.newKTypeArray(total);
+        for (int i=0;i<total;i++)
+        {
+            int s = merge[0];
+            merged[i] = keys[0];
+            int head = ++this.run_head[s];
+            if (head == this.run_end[s])
+            {
+                this._freeRun(s);
+                int last = --count;
+                if (last > 0)
+                    _runDown(keys, merge, last, 0, keys[last], merge[last]);
+            }
+            else
+            {
+                _runDown(keys, merge, count, 0, this.run_data[s][head], s);
+            }
+        }
+
+        // the merged runs are gone; rebuild the heap of runs from the remaining slots
+        this.run_count = 0;
+        for (int s=0;s<this.run_group.length;s++)
+        {
+            if (this.run_group[s] >= 0)
+            {
+                this.run_keys[this.run_count] = this.run_data[s][this.run_head[s]];
+                this.runs[this.run_count++] = s;
+            }
+        }
+        for (int i=this.run_count>>1;i>=0;i--)
+            _runDown(this.run_keys, this.runs, this.run_count, i, this.run_keys[i], this.runs[i]);
+
+        this._addRun(merged, total, g+1);
+        return;
+    }
+
+    private int _allocRun(KType [] run, int n, int g)
+    {
+        int s = 0;
+        while (s < this.run_group.length && this.run_group[s] >= 0)
+            s++;
+        if (s == this.run_group.length)
+            this.allocateRuns(s * 2);
+
+        this.run_data[s] = run;
+        this.run_head[s] = 0;
+        this.run_end[s] = n;
+        this.run_group[s] = g;
+        this.group_runs[g]++;
+        return s;
+    }
+
+    private void _freeRun(int s)
+    {
+        this.group_runs[this.run_group[s]]--;
+        this.run_group[s] = -1;
+        this.run_data[s] = null;
+        return;
+    }
+
+    /**
+     * Sift the run in slot s, with first remaining element key, up a heap of runs from the
+     * hole at i.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _runUp(KType [] keys, int [] h, int i, KType key, int s)
+    {
+        while (i > 0)
+        {
+            int p = (i-1) >> 1;
+            KType k_p = keys[p];
+            if (k_p <= key)
+                break;
+            keys[i] = k_p;
+            h[i] = h[p];
+            i = p;
+        }
+        keys[i] = key;
+        h[i] = s;
+        return;
+    }
+
+    /**
+     * Sift the run in slot s, with first remaining element key, down a heap of n runs from
+     * the hole at i.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _runDown(KType [] keys, int [] h, int n, int i, KType key, int s)
+    {
+        int c;
+        while ((c = i+i+1) < n)
+        {
+            KType k_c = keys[c];
+            if (c+1 < n)
+            {
+                KType k_d = keys[c+1];
+                if (k_d < k_c)
+                {
+                    k_c = k_d;
+                    c++;
+                }
+            }
+            if (key <= k_c)
+                break;
+            keys[i] = k_c;
+            h[i] = h[c];
+            i = c;
+        }
+        keys[i] = key;
+        h[i] = s;
+        return;
+    }
+
+    public void allocateRuns(int slots)
+    {
+        int old = (this.run_group == null) ? 0 : this.run_group.length;
+
+        /* #if ($TemplateOptions.KTypeGeneric) */
+        @SuppressWarnings("unchecked")
+        KType [][] new_data = (KType [][]) new Object [slots][];
+        /* #else */
+        KType [][] new_data = new KType [slots][];
+        /* #end */
+        int [] new_head = new int[slots];
+        int [] new_end = new int[slots];
+        int [] new_group = new int[slots];
+        int [] new_runs = new int[slots];
+        KType [] new_keys = Intrinsics.newKTypeArray(slots);
+        java.util.Arrays.fill(new_group, -1);
+
+        if (old > 0)
+        {
+            System.arraycopy(this.run_data, 0, new_data, 0, old);
+            System.arraycopy(this.run_head, 0, new_head, 0, old);
+            System.arraycopy(this.run_end, 0, new_end, 0, old);
+            System.arraycopy(this.run_group, 0, new_group, 0, old);
+            System.arraycopy(this.runs, 0, new_runs, 0, this.run_count);
+            System.arraycopy(this.run_keys, 0, new_keys, 0, this.run_count);
+        }
+
+        this.run_data = new_data;
+        this.run_head = new_head;
+        this.run_end = new_end;
+        this.run_group = new_group;
+        this.runs = new_runs;
+        this.run_keys = new_keys;
+        return;
+    }
+}
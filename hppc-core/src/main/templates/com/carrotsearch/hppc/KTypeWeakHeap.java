@@ -0,0 +1,371 @@
+//
+// This file (c) 2013 Benjamin Johnson, http://picomancer.com
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//     http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+//
+
+package com.carrotsearch.hppc;
+
+import com.carrotsearch.hppc.procedures.KTypeProcedure;
+
+/**
+ * A weak min-heap of <code>KType</code>s, using a comparator.
+ *
+ * For comparators which are expensive to call.  A weak heap only orders each element
+ * against its right subtree, so an element can be moved down by flipping a reverse bit
+ * which swaps a node's subtrees instead of comparing it with both children.  pop() does
+ * exactly ceil(lg n) comparisons, and building a heap from n elements does n-1, so
+ * draining a full heap takes about n lg n comparisons against roughly 2 n lg n for
+ * {@link KTypeIndirectHeap}, at the cost of a few more moves.  The reverse bits are
+ * packed into a long[], one bit per element.
+ *
+ *               0
+ *               1
+ *       2               3
+ *   4       5       6       7
+ *
+ * The root has only a right child.  The children of i are 2i+r[i] (left) and
+ * 2i+1-r[i] (right).
+ */
+
+/*! ${TemplateOptions.generatedAnnotation} !*/
+public class KTypeWeakHeap<KType>
+{
+    /**
+     * Minimum capacity.  Borrowed from HashContainerUtils.
+     */
+    public final static int MIN_CAPACITY = HashContainerUtils.MIN_CAPACITY;
+
+    /**
+     * Default capacity.  Borrowed from HashContainerUtils.
+     */
+    public final static int DEFAULT_CAPACITY = HashContainerUtils.DEFAULT_CAPACITY;
+
+    /**
+     * The actual heap data.
+     */
+    public KType [] heap;
+
+    /**
+     * Reverse bits, one per element of heap.
+     */
+    public long [] reverse;
+
+    /**
+     * The number of heap elements in use.
+     */
+    public int _size;
+
+    /**
+     * How to compare elements.
+     */
+    public KTypeComparator comp;
+
+    /**
+     * Create a heap with the default capacity of {@value #DEFAULT_CAPACITY}.
+     */
+    public KTypeWeakHeap(KTypeComparator comp)
+    {
+        this(comp, DEFAULT_CAPACITY);
+        return;
+    }
+
+    /**
+     * Create a heap with the given capacity.
+     */
+    public KTypeWeakHeap(KTypeComparator comp, int initialCapacity)
+    {
+        this.comp = comp;
+        initialCapacity = Math.max(initialCapacity, MIN_CAPACITY);
+        this.allocateBuffers(HashContainerUtils.roundCapacity(initialCapacity));
+        return;
+    }
+
+    /**
+     * Create a heap holding a copy of the given elements, with n-1 comparisons.
+     */
+    public static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      KTypeWeakHeap<KType> from(KTypeComparator comp, KType [] data)
+    {
+        KTypeWeakHeap<KType> h = new KTypeWeakHeap<KType>(comp, data.length);
+        System.arraycopy(data, 0, h.heap, 0, data.length);
+        h._size = data.length;
+        _build(h.heap, 0, h.reverse, data.length, comp);
+        return h;
+    }
+
+    /**
+     * Add an element.
+     */
+    public boolean add(KType e)
+    {
+        int n = this._size;
+        if (n == this.heap.length)
+            this.expand();
+
+        final KType [] h = this.heap;
+        final long [] r = this.reverse;
+        h[n] = e;
+        r[n >>> 6] &= ~(1L << n);
+        // n is the first child of its parent, which therefore had no children: clearing
+        // its reverse bit doesn't change the shape of the heap
+        if ((n & 1) == 0)
+            r[n >>> 7] &= ~(1L << (n >>> 1));
+        this._size = n+1;
+
+        // sift up through distinguished ancestors while the join swaps
+        int j = n;
+        while (j > 0)
+        {
+            int i = _ancestor(r, j);
+            if (!_join(h, 0, r, i, j, this.comp))
+                break;
+            j = i;
+        }
+        return true;
+    }
+
+    /**
+     * Remove and return the smallest element.
+     */
+    public KType pop()
+    {
+        assert this._size > 0;
+
+        final KType [] h = this.heap;
+        KType result = h[0];
+        int n = --this._size;
+        if (n > 0)
+        {
+            h[0] = h[n];
+            _siftDown(h, 0, this.reverse, n, this.comp);
+        }
+        /* #if ($TemplateOptions.KTypeGeneric) */ h[n] = null; /* #end */
+        return result;
+    }
+
+    /**
+     * Push the given value, then pop a value.
+     *
+     * Much more efficient than a call to push() followed by a call to pop().
+     */
+    public KType push_pop(KType e)
+    {
+        if (this._size == 0)
+            return e;
+        KType result = this.heap[0];
+        if (this.comp.compare(e, result) <= 0)
+            return e;
+        this.heap[0] = e;
+        _siftDown(this.heap, 0, this.reverse, this._size, this.comp);
+        return result;
+    }
+
+    /**
+     * Pop a value, then push the given value.
+     *
+     * Much more efficient than a call to pop() followed by a call to push().
+     */
+    public KType pop_push(KType e)
+    {
+        assert this._size > 0;
+        KType result = this.heap[0];
+        this.heap[0] = e;
+        _siftDown(this.heap, 0, this.reverse, this._size, this.comp);
+        return result;
+    }
+
+    /**
+     * Return the smallest element.
+     */
+    public KType peek()
+    {
+        assert this._size > 0;
+        return this.heap[0];
+    }
+
+    public int size()
+    {
+        return this._size;
+    }
+
+    public boolean isEmpty()
+    {
+        return this._size == 0;
+    }
+
+    public void clear()
+    {
+        /* #if ($TemplateOptions.KTypeGeneric) */
+        java.util.Arrays.fill(this.heap, 0, this._size, null);
+        /* #end */
+        this._size = 0;
+        return;
+    }
+
+    /**
+     * Test for membership by brute force, after rejecting arguments smaller than the
+     * smallest element.
+     */
+    public boolean contains(KType k)
+    {
+        int n = this._size;
+        if (n == 0 || this.comp.compare(k, this.heap[0]) < 0)
+            return false;
+        for (int i=0;i<n;i++)
+        {
+            if (this.comp.compare(this.heap[i], k) == 0)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Visit the elements in unsorted order.
+     */
+    public <T extends KTypeProcedure<? super KType>> T forEach(T procedure)
+    {
+        final KType [] h = this.heap;
+        int n = this._size;
+        for (int i=0;i<n;i++)
+            procedure.apply(h[i]);
+        return procedure;
+    }
+
+    public void expand()
+    {
+        this.allocateBuffers(HashContainerUtils.nextCapacity(this.heap.length));
+        return;
+    }
+
+    public void allocateBuffers(int capacity)
+    {
+        KType [] new_heap = Intrinsics.newKTypeArray(capacity);
+        long [] new_reverse = new long[(capacity + 63) >>> 6];
+        if (this.heap != null)
+        {
+            System.arraycopy(this.heap, 0, new_heap, 0, Math.min(this._size, capacity));
+            System.arraycopy(this.reverse, 0, new_reverse, 0, Math.min(this.reverse.length, new_reverse.length));
+        }
+        this.heap = new_heap;
+        this.reverse = new_reverse;
+        return;
+    }
+
+    /**
+     * Sort length elements of a, starting at offset, in ascending order of comp with weak
+     * heapsort:  about n lg n comparisons in the worst case, and n/64 longs of extra space.
+     * The sort is not stable.
+     */
+    public static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void sort(KType [] a, int offset, int length, KTypeComparator comp)
+    {
+        if (length < 2)
+            return;
+
+        long [] r = new long[(length + 63) >>> 6];
+        _build(a, offset, r, length, comp);
+
+        // move the minimum to the end each round, leaving a in descending order
+        for (int m=length-1;m>0;m--)
+        {
+            KType t = a[offset];
+            a[offset] = a[offset+m];
+            a[offset+m] = t;
+            _siftDown(a, offset, r, m, comp);
+        }
+        for (int i=offset, j=offset+length-1;i<j;i++, j--)
+        {
+            KType t = a[i];
+            a[i] = a[j];
+            a[j] = t;
+        }
+        return;
+    }
+
+    /**
+     * Sort all of a in ascending order of comp.
+     */
+    public static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void sort(KType [] a, KTypeComparator comp)
+    {
+        sort(a, 0, a.length, comp);
+        return;
+    }
+
+    /**
+     * The distinguished ancestor of j:  the parent of the first node on the path up from j
+     * which is a right child.  Needs j > 0.
+     */
+    static int _ancestor(long [] r, int j)
+    {
+        while ((j & 1) == (int) ((r[j >>> 7] >>> (j >>> 1)) & 1))
+            j >>>= 1;
+        return j >>> 1;
+    }
+
+    /**
+     * Order j below its distinguished ancestor i, swapping them and the subtrees of j if j
+     * is smaller.  Elements are at a[b+i] and a[b+j].
+     *
+     * @return True if the elements were swapped.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      boolean _join(KType [] a, int b, long [] r, int i, int j, KTypeComparator comp)
+    {
+        KType a_i = a[b+i];
+        KType a_j = a[b+j];
+        if (comp.compare(a_j, a_i) < 0)
+        {
+            a[b+i] = a_j;
+            a[b+j] = a_i;
+            r[j >>> 6] ^= 1L << j;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Restore a weak heap of n elements at a[b..b+n) which is OK except for possibly the
+     * root, with exactly ceil(lg n) comparisons.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _siftDown(KType [] a, int b, long [] r, int n, KTypeComparator comp)
+    {
+        if (n < 2)
+            return;
+
+        // walk down the left spine of the root's subtree, then join the root with every
+        // node on the way back up
+        int x = 1, y;
+        while ((y = x+x+(int) ((r[x >>> 6] >>> x) & 1)) < n)
+            x = y;
+        while (x > 0)
+        {
+            _join(a, b, r, 0, x, comp);
+            x >>>= 1;
+        }
+        return;
+    }
+
+    /**
+     * Turn a[b..b+n) into a weak heap with n-1 comparisons.  All reverse bits must be clear.
+     */
+    static /* #if ($TemplateOptions.KTypeGeneric) */ <KType> /* #end */
+      void _build(KType [] a, int b, long [] r, int n, KTypeComparator comp)
+    {
+        for (int j=n-1;j>0;j--)
+            _join(a, b, r, _ancestor(r, j), j, comp);
+        return;
+    }
+}